@@ -0,0 +1,35 @@
+package com.openclassrooms.starterjwt.controllers;
+
+import java.util.concurrent.Callable;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Lets a handler give its own async response a timeout, in milliseconds, through a request attribute.
+ * StreamingResponseBody offers no timeout of its own, and spring.mvc.async.request-timeout would apply
+ * to every async endpoint.
+ */
+@Configuration
+public class AsyncTimeoutConfig implements WebMvcConfigurer {
+    public static final String TIMEOUT_ATTRIBUTE = AsyncTimeoutConfig.class.getName() + ".timeout";
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(new CallableProcessingInterceptor() {
+            // Runs before the async processing starts, the last point where its timeout can be set
+            @Override
+            public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+                Object timeout = request.getAttribute(TIMEOUT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+                if (timeout instanceof Long && request instanceof AsyncWebRequest) {
+                    ((AsyncWebRequest) request).setTimeout((Long) timeout);
+                }
+            }
+        });
+    }
+}
@@ -2,6 +2,11 @@ package com.openclassrooms.starterjwt.controllers;
 
 import javax.validation.Valid;
 
+import org.springframework.dao.DataIntegrityViolationException;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -14,14 +19,23 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.openclassrooms.starterjwt.exception.TooManyRequestsException;
+import com.openclassrooms.starterjwt.models.RefreshToken;
 import com.openclassrooms.starterjwt.models.User;
 import com.openclassrooms.starterjwt.payload.request.LoginRequest;
+import com.openclassrooms.starterjwt.payload.request.RefreshTokenRequest;
 import com.openclassrooms.starterjwt.payload.request.SignupRequest;
 import com.openclassrooms.starterjwt.payload.response.JwtResponse;
 import com.openclassrooms.starterjwt.payload.response.MessageResponse;
 import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.security.LoginThrottle;
+import com.openclassrooms.starterjwt.security.jwt.AuthTokenFilter;
 import com.openclassrooms.starterjwt.security.jwt.JwtUtils;
+import com.openclassrooms.starterjwt.security.jwt.TokenDenylist;
 import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
+import com.openclassrooms.starterjwt.services.RefreshTokenService;
+
+import io.jsonwebtoken.Claims;
 
 @CrossOrigin(origins = "*", maxAge = 3600)
 @RestController
@@ -31,58 +45,147 @@ public class AuthController {
     private final JwtUtils jwtUtils;
     private final PasswordEncoder passwordEncoder;
     private final UserRepository userRepository;
+    private final TokenDenylist tokenDenylist;
+    private final LoginThrottle loginThrottle;
+    private final RefreshTokenService refreshTokenService;
 
     AuthController(AuthenticationManager authenticationManager,
             PasswordEncoder passwordEncoder,
             JwtUtils jwtUtils,
-            UserRepository userRepository) {
+            UserRepository userRepository,
+            TokenDenylist tokenDenylist,
+            LoginThrottle loginThrottle,
+            RefreshTokenService refreshTokenService) {
         this.authenticationManager = authenticationManager;
         this.jwtUtils = jwtUtils;
         this.passwordEncoder = passwordEncoder;
         this.userRepository = userRepository;
+        this.tokenDenylist = tokenDenylist;
+        this.loginThrottle = loginThrottle;
+        this.refreshTokenService = refreshTokenService;
     }
 
     @PostMapping("/login")
-    public ResponseEntity<?> authenticateUser(@Valid @RequestBody LoginRequest loginRequest) {
+    public ResponseEntity<?> authenticateUser(@Valid @RequestBody LoginRequest loginRequest, HttpServletRequest request) {
 
-        Authentication authentication = authenticationManager.authenticate(
-                new UsernamePasswordAuthenticationToken(loginRequest.getEmail(), loginRequest.getPassword()));
+        Authentication authentication;
+        try {
+            // Throttled attempts are turned away before any password verification
+            loginThrottle.acquire(loginRequest.getEmail(), request.getRemoteAddr());
+            authentication = authenticationManager.authenticate(
+                    new UsernamePasswordAuthenticationToken(loginRequest.getEmail(), loginRequest.getPassword()));
+        } catch (TooManyRequestsException e) {
+            return tooManyRequests(e);
+        }
+        loginThrottle.release(loginRequest.getEmail());
 
         SecurityContextHolder.getContext().setAuthentication(authentication);
-        String jwt = jwtUtils.generateJwtToken(authentication);
         UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
 
-        boolean isAdmin = false;
-        User user = this.userRepository.findByEmail(userDetails.getUsername()).orElse(null);
-        if (user != null) {
-            isAdmin = user.isAdmin();
+        return ResponseEntity.ok(jwtResponse(userDetails, refreshTokenService.issue(userDetails.getId(), null)));
+    }
+
+    @PostMapping("/refresh")
+    public ResponseEntity<?> refreshToken(@Valid @RequestBody RefreshTokenRequest refreshTokenRequest) {
+        // No password check here: the refresh token is single use and looked up by its hash
+        RefreshToken refreshToken = refreshTokenService.consume(refreshTokenRequest.getRefreshToken());
+
+        if (refreshToken == null) {
+            return ResponseEntity
+                    .status(HttpStatus.UNAUTHORIZED)
+                    .body(new MessageResponse("Error: Invalid refresh token!"));
         }
 
-        return ResponseEntity.ok(new JwtResponse(jwt,
+        User user = refreshToken.getUser();
+        UserDetailsImpl userDetails = UserDetailsImpl
+                .builder()
+                .id(user.getId())
+                .username(user.getEmail())
+                .lastName(user.getLastName())
+                .firstName(user.getFirstName())
+                .admin(user.isAdmin())
+                .build();
+
+        return ResponseEntity.ok(jwtResponse(userDetails,
+                refreshTokenService.issue(user.getId(), refreshToken.getFamilyId())));
+    }
+
+    private JwtResponse jwtResponse(UserDetailsImpl userDetails, String refreshToken) {
+        return new JwtResponse(jwtUtils.generateJwtToken(userDetails),
+                refreshToken,
                 userDetails.getId(),
                 userDetails.getUsername(),
                 userDetails.getFirstName(),
                 userDetails.getLastName(),
-                isAdmin));
+                Boolean.TRUE.equals(userDetails.getAdmin()));
     }
 
     @PostMapping("/register")
     public ResponseEntity<?> registerUser(@Valid @RequestBody SignupRequest signUpRequest) {
-        if (userRepository.existsByEmail(signUpRequest.getEmail())) {
-            return ResponseEntity
-                    .badRequest()
-                    .body(new MessageResponse("Error: Email is already taken!"));
+        // Taken emails are turned away before spending a hash on them
+        if (Boolean.TRUE.equals(userRepository.existsByEmail(signUpRequest.getEmail()))) {
+            return emailTaken();
         }
 
         // Create new user's account
-        User user = new User(signUpRequest.getEmail(),
-                signUpRequest.getLastName(),
-                signUpRequest.getFirstName(),
-                passwordEncoder.encode(signUpRequest.getPassword()),
-                false);
+        User user;
+        try {
+            user = new User(signUpRequest.getEmail(),
+                    signUpRequest.getLastName(),
+                    signUpRequest.getFirstName(),
+                    passwordEncoder.encode(signUpRequest.getPassword()),
+                    false);
+        } catch (TooManyRequestsException e) {
+            return tooManyRequests(e);
+        }
 
-        userRepository.save(user);
+        // The unique email constraint settles concurrent signups; any other violation is not about the email
+        try {
+            userRepository.save(user);
+        } catch (DataIntegrityViolationException e) {
+            if (Boolean.TRUE.equals(userRepository.existsByEmail(user.getEmail()))) {
+                return emailTaken();
+            }
+            throw e;
+        }
 
         return ResponseEntity.ok(new MessageResponse("User registered successfully!"));
     }
+
+    private static ResponseEntity<MessageResponse> emailTaken() {
+        return ResponseEntity
+                .badRequest()
+                .body(new MessageResponse("Error: Email is already taken!"));
+    }
+
+    @PostMapping("/logout")
+    public ResponseEntity<?> logoutUser(HttpServletRequest request,
+            @RequestBody(required = false) RefreshTokenRequest refreshTokenRequest) {
+        String jwt = AuthTokenFilter.parseJwt(request);
+        Claims claims = jwt != null ? jwtUtils.verifyJwtToken(jwt) : null;
+
+        if (claims == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (claims.getId() == null) {
+            return ResponseEntity
+                    .badRequest()
+                    .body(new MessageResponse("Error: Token cannot be revoked!"));
+        }
+
+        tokenDenylist.revoke(claims.getId(), claims.getExpiration());
+        if (refreshTokenRequest != null && refreshTokenRequest.getRefreshToken() != null) {
+            refreshTokenService.revoke(refreshTokenRequest.getRefreshToken());
+        }
+        SecurityContextHolder.clearContext();
+
+        return ResponseEntity.ok(new MessageResponse("User logged out successfully!"));
+    }
+
+    private ResponseEntity<?> tooManyRequests(TooManyRequestsException e) {
+        return ResponseEntity
+                .status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(new MessageResponse("Error: Too many requests, please retry later!"));
+    }
 }
@@ -1,55 +1,149 @@
 package com.openclassrooms.starterjwt.controllers;
 
 
+import com.openclassrooms.starterjwt.dto.ResourceVersion;
 import com.openclassrooms.starterjwt.dto.SessionDto;
 import com.openclassrooms.starterjwt.mapper.SessionMapper;
 import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.payload.response.SessionPage;
+import com.openclassrooms.starterjwt.services.SessionExportService;
 import com.openclassrooms.starterjwt.services.SessionService;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
-import java.util.List;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Locale;
 
-@CrossOrigin(origins = "*", maxAge = 3600)
+// The front end pages through the listing with the cursor header, which browsers hide unless exposed
+@CrossOrigin(origins = "*", maxAge = 3600, exposedHeaders = SessionController.NEXT_CURSOR_HEADER)
 @RestController
 @RequestMapping("/api/session")
 @Log4j2
 public class SessionController {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int DEFAULT_UPCOMING_DAYS = 14;
+
+    // Clients may keep a copy but must revalidate it with the ETag on every use
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
     private final SessionMapper sessionMapper;
     private final SessionService sessionService;
+    private final SessionExportService sessionExportService;
 
 
     public SessionController(SessionService sessionService,
+                             SessionExportService sessionExportService,
                              SessionMapper sessionMapper) {
         this.sessionMapper = sessionMapper;
         this.sessionService = sessionService;
+        this.sessionExportService = sessionExportService;
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<?> findById(@PathVariable("id") String id) {
+    public ResponseEntity<?> findById(@PathVariable("id") String id, WebRequest webRequest) {
         try {
+            ResourceVersion version = this.sessionService.getVersion(Long.valueOf(id));
+            if (version == null) {
+                return ResponseEntity.notFound().build();
+            }
+            if (webRequest.checkNotModified(version.getETag())) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(REVALIDATE).build();
+            }
+
             Session session = this.sessionService.getById(Long.valueOf(id));
 
             if (session == null) {
                 return ResponseEntity.notFound().build();
             }
 
-            return ResponseEntity.ok().body(this.sessionMapper.toDto(session));
+            return ResponseEntity.ok().cacheControl(REVALIDATE).body(this.sessionMapper.toDto(session));
         } catch (NumberFormatException e) {
             return ResponseEntity.badRequest().build();
         }
     }
 
     @GetMapping()
-    public ResponseEntity<?> findAll() {
-        List<Session> sessions = this.sessionService.findAll();
+    public ResponseEntity<?> findAll(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                     @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                     @RequestParam(required = false) Long teacherId,
+                                     @RequestParam(required = false) Integer size,
+                                     @RequestParam(required = false) String cursor,
+                                     WebRequest webRequest) {
+        // Validated against the whole table, before anything is loaded or serialized
+        ResourceVersion version = this.sessionService.getTableVersion();
+        if (webRequest.checkNotModified(version.getETag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(REVALIDATE).build();
+        }
+
+        // Without any parameter the whole listing is returned, as before
+        if (from == null && to == null && teacherId == null && size == null && cursor == null) {
+            return ResponseEntity.ok().cacheControl(REVALIDATE).body(this.sessionService.findAllSummaries());
+        }
 
-        return ResponseEntity.ok().body(this.sessionMapper.toDto(sessions));
+        int pageSize = size != null ? Math.max(1, Math.min(MAX_PAGE_SIZE, size)) : DEFAULT_PAGE_SIZE;
+        SessionPage page = this.sessionService.findSummaries(
+                from != null ? Date.from(from.atStartOfDay(ZoneId.systemDefault()).toInstant()) : null,
+                to != null ? Date.from(to.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant()) : null,
+                teacherId, cursor, pageSize);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(REVALIDATE);
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getSessions());
+    }
+
+    // Both days are included; defaults to the next two weeks
+    @GetMapping("/upcoming")
+    public ResponseEntity<?> findUpcoming(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        LocalDate start = from != null ? from : LocalDate.now();
+        LocalDate end = to != null ? to : start.plusDays(DEFAULT_UPCOMING_DAYS - 1);
+        if (end.isBefore(start)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return ResponseEntity.ok().body(this.sessionService.findUpcoming(
+                Date.from(start.atStartOfDay(ZoneId.systemDefault()).toInstant()),
+                Date.from(end.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant())));
+    }
+
+    @GetMapping("/export")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(defaultValue = "ndjson") String format,
+                                                        WebRequest webRequest) {
+        SessionExportService.Format exportFormat;
+        try {
+            exportFormat = SessionExportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        webRequest.setAttribute(AsyncTimeoutConfig.TIMEOUT_ATTRIBUTE, this.sessionExportService.getTimeoutMillis(),
+                RequestAttributes.SCOPE_REQUEST);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"sessions." + exportFormat.getExtension() + "\"")
+                .body(out -> this.sessionExportService.export(exportFormat, out));
     }
 
     @PostMapping()
+    @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<?> create(@Valid @RequestBody SessionDto sessionDto) {
         log.info(sessionDto);
 
@@ -60,17 +154,26 @@ public class SessionController {
     }
 
     @PutMapping("{id}")
-    public ResponseEntity<?> update(@PathVariable("id") String id, @Valid @RequestBody SessionDto sessionDto) {
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> update(@PathVariable("id") String id, @Valid @RequestBody SessionDto sessionDto,
+                                    @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         try {
-            Session session = this.sessionService.update(Long.parseLong(id), this.sessionMapper.toEntity(sessionDto));
+            Long expectedVersion = ifMatch != null ? ResourceVersion.parseIfMatch(ifMatch) : null;
+            Session session = this.sessionService.update(Long.parseLong(id), this.sessionMapper.toEntity(sessionDto), expectedVersion);
 
-            return ResponseEntity.ok().body(this.sessionMapper.toDto(session));
+            ResourceVersion version = this.sessionService.getVersion(session.getId());
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (version != null) {
+                response.eTag(version.getETag());
+            }
+            return response.body(this.sessionMapper.toDto(session));
         } catch (NumberFormatException e) {
             return ResponseEntity.badRequest().build();
         }
     }
 
     @DeleteMapping("{id}")
+    @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<?> save(@PathVariable("id") String id) {
         try {
             Session session = this.sessionService.getById(Long.valueOf(id));
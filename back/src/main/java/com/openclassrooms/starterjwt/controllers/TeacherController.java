@@ -1,16 +1,22 @@
 package com.openclassrooms.starterjwt.controllers;
 
+import com.openclassrooms.starterjwt.dto.ResourceVersion;
 import com.openclassrooms.starterjwt.mapper.TeacherMapper;
 import com.openclassrooms.starterjwt.models.Teacher;
 import com.openclassrooms.starterjwt.services.TeacherService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import java.util.List;
 
 @CrossOrigin(origins = "*", maxAge = 3600)
 @RestController
 @RequestMapping("/api/teacher")
 public class TeacherController {
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
     private final TeacherMapper teacherMapper;
     private final TeacherService teacherService;
 
@@ -22,24 +28,36 @@ public class TeacherController {
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<?> findById(@PathVariable("id") String id) {
+    public ResponseEntity<?> findById(@PathVariable("id") String id, WebRequest webRequest) {
         try {
-            Teacher teacher = this.teacherService.findById(Long.valueOf(id));
+            Long teacherId = Long.valueOf(id);
+            // The table validator also covers each teacher, they change too rarely to track them one by one
+            ResourceVersion version = this.teacherService.getTableVersion();
+            if (webRequest.checkNotModified(version.getETag())) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(REVALIDATE).build();
+            }
+
+            Teacher teacher = this.teacherService.findById(teacherId);
 
             if (teacher == null) {
                 return ResponseEntity.notFound().build();
             }
 
-            return ResponseEntity.ok().body(this.teacherMapper.toDto(teacher));
+            return ResponseEntity.ok().cacheControl(REVALIDATE).body(this.teacherMapper.toDto(teacher));
         } catch (NumberFormatException e) {
             return ResponseEntity.badRequest().build();
         }
     }
 
     @GetMapping()
-    public ResponseEntity<?> findAll() {
+    public ResponseEntity<?> findAll(WebRequest webRequest) {
+        ResourceVersion version = this.teacherService.getTableVersion();
+        if (webRequest.checkNotModified(version.getETag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(REVALIDATE).build();
+        }
+
         List<Teacher> teachers = this.teacherService.findAll();
 
-        return ResponseEntity.ok().body(this.teacherMapper.toDto(teachers));
+        return ResponseEntity.ok().cacheControl(REVALIDATE).body(this.teacherMapper.toDto(teachers));
     }
 }
@@ -1,15 +1,25 @@
 package com.openclassrooms.starterjwt.controllers;
 
+import com.openclassrooms.starterjwt.exception.TooManyRequestsException;
 import com.openclassrooms.starterjwt.mapper.UserMapper;
 import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.payload.request.BulkSignupRequest;
+import com.openclassrooms.starterjwt.payload.response.BulkRegistrationResponse;
+import com.openclassrooms.starterjwt.payload.response.MessageResponse;
+import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
 import com.openclassrooms.starterjwt.services.UserService;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
+import javax.validation.Valid;
+import java.util.List;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 @CrossOrigin(origins = "*", maxAge = 3600)
 @RestController
@@ -43,15 +53,10 @@ public class UserController {
     @DeleteMapping("{id}")
     public ResponseEntity<?> save(@PathVariable("id") String id) {
         try {
-            User user = this.userService.findById(Long.valueOf(id));
-
-            if (user == null) {
-                return ResponseEntity.notFound().build();
-            }
-
-            UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+            UserDetailsImpl userDetails = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
 
-            if(!Objects.equals(userDetails.getUsername(), user.getEmail())) {
+            // Ownership is decided from the principal, the user row is only touched by the delete itself
+            if(!Objects.equals(userDetails.getId(), Long.valueOf(id))) {
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
             }
 
@@ -59,6 +64,30 @@ public class UserController {
             return ResponseEntity.ok().build();
         } catch (NumberFormatException e) {
             return ResponseEntity.badRequest().build();
+        } catch (EmptyResultDataAccessException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PostMapping("/bulk")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> registerAll(@Valid @RequestBody BulkSignupRequest bulkSignupRequest) {
+        List<User> users = bulkSignupRequest.getUsers().stream()
+                .map(signUpRequest -> new User(signUpRequest.getEmail(),
+                        signUpRequest.getLastName(),
+                        signUpRequest.getFirstName(),
+                        signUpRequest.getPassword(),
+                        false))
+                .collect(Collectors.toList());
+
+        try {
+            List<String> alreadyTaken = this.userService.registerAll(users);
+            return ResponseEntity.ok().body(new BulkRegistrationResponse(users.size() - alreadyTaken.size(), alreadyTaken));
+        } catch (TooManyRequestsException e) {
+            return ResponseEntity
+                    .status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(new MessageResponse("Error: Too many requests, please retry later!"));
         }
     }
 }
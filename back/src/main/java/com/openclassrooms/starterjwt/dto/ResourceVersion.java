@@ -0,0 +1,61 @@
+package com.openclassrooms.starterjwt.dto;
+
+import java.util.Date;
+
+/**
+ * Validators for conditional requests, computed from a cheap query instead of the representation.
+ *
+ * Only an ETag is offered: updated_at moves neither on deletes nor on the seat counters, so a
+ * Last-Modified date would let If-Modified-Since requests revalidate stale representations.
+ */
+public class ResourceVersion {
+    private final String eTag;
+
+    private ResourceVersion(String eTag) {
+        this.eTag = eTag;
+    }
+
+    /**
+     * From a (row count, max id, sum of versions, max updated_at) aggregate. Inserts and deletes move the
+     * count or the max id, and edits bump a row version or its updated_at, so all four go into the ETag.
+     * Tables without a version column report 0 for the sum and rely on updated_at alone for edits.
+     */
+    public static ResourceVersion ofTable(Object[] aggregate) {
+        Date lastModified = (Date) aggregate[3];
+        return new ResourceVersion("\"" + Long.toHexString(toLong(aggregate[0]))
+                + "-" + Long.toHexString(toLong(aggregate[1]))
+                + "-" + Long.toHexString(toLong(aggregate[2]))
+                + "-" + Long.toHexString(lastModified != null ? lastModified.getTime() : 0) + "\"");
+    }
+
+    // From a (version, updated_at) row, the version alone moves on every write
+    public static ResourceVersion ofRow(Object[] row) {
+        return new ResourceVersion("\"" + toLong(row[0]) + "\"");
+    }
+
+    /**
+     * The version an If-Match header asks for, null for "*", or -1 when it cannot match any row version.
+     */
+    public static Long parseIfMatch(String ifMatch) {
+        String value = ifMatch.trim();
+        if ("*".equals(value)) {
+            return null;
+        }
+        if (value.length() < 3 || value.charAt(0) != '"' || value.charAt(value.length() - 1) != '"') {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(value.substring(1, value.length() - 1));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    private static long toLong(Object value) {
+        return value != null ? ((Number) value).longValue() : 0;
+    }
+}
@@ -4,10 +4,12 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -31,9 +33,18 @@ public class SessionDto {
     @Size(max = 2500)
     private String description;
 
+    @Min(1)
+    private Integer capacity;
+
     private List<Long> users;
 
     private LocalDateTime createdAt;
 
     private LocalDateTime updatedAt;
+
+    // Used by the listing projection, participants are filled in afterwards
+    public SessionDto(Long id, String name, Date date, Long teacher_id, String description, Integer capacity,
+                      LocalDateTime createdAt, LocalDateTime updatedAt) {
+        this(id, name, date, teacher_id, description, capacity, new ArrayList<>(), createdAt, updatedAt);
+    }
 }
@@ -0,0 +1,25 @@
+package com.openclassrooms.starterjwt.dto;
+
+import lombok.Value;
+import lombok.With;
+
+import java.util.Date;
+
+/**
+ * Immutable summary of an upcoming session, with its participant count instead of the participant ids.
+ */
+@Value
+public class UpcomingSessionDto {
+    Long id;
+
+    String name;
+
+    Date date;
+
+    Long teacher_id;
+
+    Integer capacity;
+
+    @With
+    int participantCount;
+}
@@ -0,0 +1,22 @@
+package com.openclassrooms.starterjwt.models;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "REVOKED_TOKENS")
+@Data
+@EqualsAndHashCode(of = {"jti"})
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class RevokedToken {
+  @Id
+  @Column(length = 36)
+  private String jti;
+
+  @Column(name = "expires_at", nullable = false)
+  private LocalDateTime expiresAt;
+}
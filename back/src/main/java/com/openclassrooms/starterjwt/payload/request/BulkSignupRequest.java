@@ -0,0 +1,16 @@
+package com.openclassrooms.starterjwt.payload.request;
+
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+
+import lombok.Data;
+
+@Data
+public class BulkSignupRequest {
+  @NotEmpty
+  @Size(max = 1000)
+  private List<@Valid SignupRequest> users;
+}
@@ -0,0 +1,11 @@
+package com.openclassrooms.starterjwt.payload.request;
+
+import javax.validation.constraints.NotBlank;
+
+import lombok.Data;
+
+@Data
+public class RefreshTokenRequest {
+  @NotBlank
+  private String refreshToken;
+}
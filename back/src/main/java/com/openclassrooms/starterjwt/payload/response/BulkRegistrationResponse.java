@@ -0,0 +1,14 @@
+package com.openclassrooms.starterjwt.payload.response;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class BulkRegistrationResponse {
+  private int registered;
+
+  private List<String> alreadyTaken;
+}
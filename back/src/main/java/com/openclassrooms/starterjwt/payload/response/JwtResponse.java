@@ -7,6 +7,7 @@ import lombok.Setter;
 @Setter
 public class JwtResponse {
   private String token;
+  private String refreshToken;
   private String type = "Bearer";
   private Long id;
   private String username;
@@ -15,8 +16,9 @@ public class JwtResponse {
 
   private Boolean admin;
 
-  public JwtResponse(String accessToken, Long id, String username,String firstName, String lastName, Boolean admin) {
+  public JwtResponse(String accessToken, String refreshToken, Long id, String username,String firstName, String lastName, Boolean admin) {
     this.token = accessToken;
+    this.refreshToken = refreshToken;
     this.id = id;
     this.firstName = firstName;
     this.lastName = lastName;
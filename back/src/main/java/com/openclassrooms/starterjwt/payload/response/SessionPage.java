@@ -0,0 +1,17 @@
+package com.openclassrooms.starterjwt.payload.response;
+
+import java.util.List;
+
+import com.openclassrooms.starterjwt.dto.SessionDto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class SessionPage {
+  private List<SessionDto> sessions;
+
+  // Opaque key of the last session returned, null on the last page
+  private String nextCursor;
+}
@@ -0,0 +1,95 @@
+package com.openclassrooms.starterjwt.repository;
+
+import java.net.URI;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.models.Teacher;
+import com.openclassrooms.starterjwt.models.User;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.JCacheMetrics;
+
+/**
+ * Optional Hibernate second-level cache for Session, Teacher, User and the Session.users collection,
+ * held in Caffeine through JCache. Disabled unless oc.app.entityCacheEnabled is true.
+ *
+ * Each region is created up front with its own size bound and time to live, and exposes its hits,
+ * misses, puts and evictions as cache.* meters tagged with the region name. Writes made through the
+ * entities keep the regions current; the native writes in SessionRepository declare the tables they
+ * touch so that Hibernate only invalidates the matching regions.
+ */
+@Configuration
+public class EntityCacheConfig {
+  public static final String SESSION_REGION = Session.class.getName();
+  public static final String SESSION_USERS_REGION = Session.class.getName() + ".users";
+  public static final String TEACHER_REGION = Teacher.class.getName();
+  public static final String USER_REGION = User.class.getName();
+
+  @Bean
+  @ConditionalOnProperty(name = "oc.app.entityCacheEnabled", havingValue = "true")
+  public CacheManager entityCacheManager(MeterRegistry meterRegistry,
+      @Value("${oc.app.entityCacheSessionSize:10000}") long sessionSize,
+      @Value("${oc.app.entityCacheSessionTtlSeconds:600}") long sessionTtlSeconds,
+      @Value("${oc.app.entityCacheSessionUsersSize:10000}") long sessionUsersSize,
+      @Value("${oc.app.entityCacheSessionUsersTtlSeconds:300}") long sessionUsersTtlSeconds,
+      @Value("${oc.app.entityCacheTeacherSize:1000}") long teacherSize,
+      @Value("${oc.app.entityCacheTeacherTtlSeconds:3600}") long teacherTtlSeconds,
+      @Value("${oc.app.entityCacheUserSize:10000}") long userSize,
+      @Value("${oc.app.entityCacheUserTtlSeconds:300}") long userTtlSeconds) {
+    // One manager per application context, so that test contexts never share regions or MBean names
+    CacheManager cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+        .getCacheManager(URI.create("entity-cache-" + UUID.randomUUID()), getClass().getClassLoader());
+
+    createRegion(cacheManager, meterRegistry, SESSION_REGION, sessionSize, sessionTtlSeconds);
+    createRegion(cacheManager, meterRegistry, SESSION_USERS_REGION, sessionUsersSize, sessionUsersTtlSeconds);
+    createRegion(cacheManager, meterRegistry, TEACHER_REGION, teacherSize, teacherTtlSeconds);
+    createRegion(cacheManager, meterRegistry, USER_REGION, userSize, userTtlSeconds);
+    return cacheManager;
+  }
+
+  @Bean
+  public HibernatePropertiesCustomizer entityCacheCustomizer(ObjectProvider<CacheManager> entityCacheManager) {
+    return properties -> {
+      CacheManager cacheManager = entityCacheManager.getIfAvailable();
+      // hibernate-jcache would otherwise be picked up on its own as soon as it is on the classpath
+      properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, cacheManager != null);
+      if (cacheManager == null) {
+        return;
+      }
+
+      properties.put(AvailableSettings.CACHE_REGION_FACTORY, ConfigSettings.SIMPLE_FACTORY_NAME);
+      properties.put(ConfigSettings.CACHE_MANAGER, cacheManager);
+      // A cached entity without a configured region is a mistake, not a reason to create an unbounded one
+      properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+    };
+  }
+
+  private static void createRegion(CacheManager cacheManager, MeterRegistry meterRegistry,
+      String region, long maximumSize, long ttlSeconds) {
+    CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+    configuration.setMaximumSize(OptionalLong.of(maximumSize));
+    configuration.setExpireAfterWrite(OptionalLong.of(TimeUnit.SECONDS.toNanos(ttlSeconds)));
+    configuration.setStatisticsEnabled(true);
+
+    Cache<Object, Object> cache = cacheManager.createCache(region, configuration);
+    JCacheMetrics.monitor(meterRegistry, cache);
+  }
+}
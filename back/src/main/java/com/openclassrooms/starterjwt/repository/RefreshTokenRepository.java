@@ -0,0 +1,35 @@
+package com.openclassrooms.starterjwt.repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.openclassrooms.starterjwt.models.RefreshToken;
+
+@Repository
+public interface RefreshTokenRepository extends JpaRepository<RefreshToken, Long> {
+  @Query("select t from RefreshToken t join fetch t.user where t.tokenHash = :tokenHash")
+  Optional<RefreshToken> findByTokenHash(@Param("tokenHash") String tokenHash);
+
+  // Conditional update so that only one of two concurrent refreshes can consume the token
+  @Modifying
+  @Transactional
+  @Query("update RefreshToken t set t.used = true where t.id = :id and t.used = false")
+  int markUsed(@Param("id") Long id);
+
+  @Modifying
+  @Transactional
+  @Query("delete from RefreshToken t where t.familyId = :familyId")
+  int deleteFamily(@Param("familyId") String familyId);
+
+  @Modifying
+  @Transactional
+  @Query("delete from RefreshToken t where t.expiresAt <= :now")
+  int deleteExpired(@Param("now") LocalDateTime now);
+}
@@ -0,0 +1,30 @@
+package com.openclassrooms.starterjwt.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.openclassrooms.starterjwt.models.RevokedToken;
+
+@Repository
+public interface RevokedTokenRepository extends JpaRepository<RevokedToken, String> {
+  List<RevokedToken> findByExpiresAtAfter(LocalDateTime now);
+
+  // Revoking a token twice, even concurrently, leaves the first row in place
+  @Modifying
+  @Transactional
+  @Query(value = "INSERT INTO REVOKED_TOKENS (jti, expires_at) VALUES (:jti, :expiresAt) ON DUPLICATE KEY UPDATE jti = jti",
+      nativeQuery = true)
+  int insertIfAbsent(@Param("jti") String jti, @Param("expiresAt") LocalDateTime expiresAt);
+
+  @Modifying
+  @Transactional
+  @Query("delete from RevokedToken t where t.expiresAt <= :now")
+  int deleteExpired(@Param("now") LocalDateTime now);
+}
@@ -1,9 +1,111 @@
 package com.openclassrooms.starterjwt.repository;
 
-import com.openclassrooms.starterjwt.models.Session;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.QueryHint;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.openclassrooms.starterjwt.dto.SessionDto;
+import com.openclassrooms.starterjwt.models.Session;
 
 @Repository
-public interface SessionRepository  extends JpaRepository<Session, Long> {
+public interface SessionRepository  extends JpaRepository<Session, Long>, SessionRepositoryCustom {
+  // Native writes name the tables they touch, otherwise Hibernate clears every second-level cache region.
+  // No entity is mapped on PARTICIPATE: callers lock the cached participants with lockCachedParticipants.
+  String NATIVE_SPACES = org.hibernate.jpa.QueryHints.HINT_NATIVE_SPACES;
+  String PARTICIPANTS_SPACE = "PARTICIPATE";
+  // Seat counters and versions are not mapped on Session either. Their updates set updated_at to itself so that
+  // ON UPDATE CURRENT_TIMESTAMP leaves the mapped updatedAt alone, and no cached Session goes stale.
+  String COUNTERS_SPACE = "SESSION_COUNTERS";
+
+  // Session columns and teacher id only, without loading teachers or participants
+  @Query("select new com.openclassrooms.starterjwt.dto.SessionDto(s.id, s.name, s.date, t.id, s.description, s.capacity, s.createdAt, s.updatedAt)"
+      + " from Session s left join s.teacher t order by s.id")
+  List<SessionDto> findAllSummaries();
+
+  // (session_id, user_id) pairs straight from the join table
+  @Query(value = "select p.session_id, p.user_id from PARTICIPATE p where p.session_id in (:sessionIds)", nativeQuery = true)
+  List<Object[]> findParticipantIds(@Param("sessionIds") Collection<Long> sessionIds);
+
+  // Inserts the pair only when the session and the user exist and the user is not already a participant
+  @Modifying
+  @Transactional
+  @QueryHints(@QueryHint(name = NATIVE_SPACES, value = PARTICIPANTS_SPACE))
+  @Query(value = "insert into PARTICIPATE (session_id, user_id)"
+      + " select s.id, u.id from SESSIONS s join USERS u on u.id = :userId"
+      + " where s.id = :sessionId"
+      + " and not exists (select 1 from PARTICIPATE p where p.session_id = :sessionId and p.user_id = :userId)",
+      nativeQuery = true)
+  int addParticipant(@Param("sessionId") Long sessionId, @Param("userId") Long userId);
+
+  @Modifying
+  @Transactional
+  @QueryHints(@QueryHint(name = NATIVE_SPACES, value = PARTICIPANTS_SPACE))
+  @Query(value = "delete from PARTICIPATE where session_id = :sessionId and user_id = :userId", nativeQuery = true)
+  int removeParticipant(@Param("sessionId") Long sessionId, @Param("userId") Long userId);
+
+  @Query(value = "select count(*) from PARTICIPATE where session_id = :sessionId and user_id = :userId", nativeQuery = true)
+  int countParticipant(@Param("sessionId") Long sessionId, @Param("userId") Long userId);
+
+  // Takes a seat only while one is left; the row lock serializes concurrent bookings of the same session
+  @Modifying
+  @Transactional
+  @QueryHints(@QueryHint(name = NATIVE_SPACES, value = COUNTERS_SPACE))
+  @Query(value = "update SESSIONS set participant_count = participant_count + 1, version = version + 1, updated_at = updated_at"
+      + " where id = :sessionId and (capacity is null or participant_count < capacity)", nativeQuery = true)
+  int reserveSeat(@Param("sessionId") Long sessionId);
+
+  @Modifying
+  @Transactional
+  @QueryHints(@QueryHint(name = NATIVE_SPACES, value = COUNTERS_SPACE))
+  @Query(value = "update SESSIONS set participant_count = participant_count - 1, version = version + 1, updated_at = updated_at"
+      + " where id = :sessionId and participant_count > 0", nativeQuery = true)
+  int releaseSeat(@Param("sessionId") Long sessionId);
+
+  // (id, name, date, teacher_id, capacity, participant_count) of the sessions from the given date on
+  @Query(value = "select id, name, date, teacher_id, capacity, participant_count from SESSIONS where date >= :from",
+      nativeQuery = true)
+  List<Object[]> findUpcoming(@Param("from") Date from);
+
+  // The findUpcoming row of a single session, empty once it is deleted or its day is over
+  @Query(value = "select id, name, date, teacher_id, capacity, participant_count from SESSIONS where id = :sessionId and date >= :from",
+      nativeQuery = true)
+  List<Object[]> findUpcomingById(@Param("sessionId") Long sessionId, @Param("from") Date from);
+
+  @Query(value = "select count(*), max(id), coalesce(sum(version), 0), max(updated_at) from SESSIONS", nativeQuery = true)
+  List<Object[]> findTableVersion();
+
+  @Query(value = "select version, updated_at from SESSIONS where id = :sessionId", nativeQuery = true)
+  List<Object[]> findVersion(@Param("sessionId") Long sessionId);
+
+  @Modifying
+  @Transactional
+  @QueryHints(@QueryHint(name = NATIVE_SPACES, value = COUNTERS_SPACE))
+  @Query(value = "update SESSIONS set version = version + 1, updated_at = updated_at where id = :sessionId", nativeQuery = true)
+  int bumpVersion(@Param("sessionId") Long sessionId);
+
+  // Compare-and-set for If-Match: nothing is updated when the client saw an older version
+  @Modifying
+  @Transactional
+  @QueryHints(@QueryHint(name = NATIVE_SPACES, value = COUNTERS_SPACE))
+  @Query(value = "update SESSIONS set version = version + 1, updated_at = updated_at where id = :sessionId and version = :expectedVersion", nativeQuery = true)
+  int bumpVersion(@Param("sessionId") Long sessionId, @Param("expectedVersion") Long expectedVersion);
+
+  // Recounts after the participants were flushed through the entity; nothing is updated when they no longer fit
+  @Modifying
+  @Transactional
+  @QueryHints(@QueryHint(name = NATIVE_SPACES, value = COUNTERS_SPACE))
+  @Query(value = "update SESSIONS set participant_count ="
+      + " (select count(*) from PARTICIPATE p where p.session_id = :sessionId), updated_at = updated_at where id = :sessionId"
+      + " and (capacity is null or (select count(*) from PARTICIPATE p where p.session_id = :sessionId) <= capacity)", nativeQuery = true)
+  int refreshParticipantCount(@Param("sessionId") Long sessionId);
 }
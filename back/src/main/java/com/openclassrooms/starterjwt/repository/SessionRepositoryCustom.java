@@ -0,0 +1,21 @@
+package com.openclassrooms.starterjwt.repository;
+
+import java.util.Date;
+import java.util.List;
+
+import com.openclassrooms.starterjwt.dto.SessionDto;
+
+public interface SessionRepositoryCustom {
+  /**
+   * Session projections ordered by (date, id), starting strictly after the (afterDate, afterId) key when
+   * given. Null filters are left out of the query so that it can use the (date, id) and
+   * (teacher_id, date, id) indexes.
+   */
+  List<SessionDto> findSummaries(Date from, Date to, Long teacherId, Date afterDate, Long afterId, int limit);
+
+  /**
+   * Soft-locks the cached participants of the session until the current transaction completes, for
+   * writes to PARTICIPATE that bypass the entity. Does nothing while the second-level cache is disabled.
+   */
+  void lockCachedParticipants(Long sessionId);
+}
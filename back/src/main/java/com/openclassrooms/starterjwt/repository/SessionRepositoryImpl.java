@@ -0,0 +1,75 @@
+package com.openclassrooms.starterjwt.repository;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+import org.hibernate.cache.spi.access.CollectionDataAccess;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+
+import com.openclassrooms.starterjwt.dto.SessionDto;
+import com.openclassrooms.starterjwt.models.Session;
+
+public class SessionRepositoryImpl implements SessionRepositoryCustom {
+  private static final String PARTICIPANTS_ROLE = Session.class.getName() + ".users";
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Override
+  public List<SessionDto> findSummaries(Date from, Date to, Long teacherId, Date afterDate, Long afterId, int limit) {
+    StringBuilder jpql = new StringBuilder(
+        "select new com.openclassrooms.starterjwt.dto.SessionDto(s.id, s.name, s.date, t.id, s.description, s.capacity, s.createdAt, s.updatedAt)"
+            + " from Session s left join s.teacher t where 1 = 1");
+    if (from != null) {
+      jpql.append(" and s.date >= :from");
+    }
+    if (to != null) {
+      jpql.append(" and s.date < :to");
+    }
+    if (teacherId != null) {
+      jpql.append(" and t.id = :teacherId");
+    }
+    if (afterDate != null) {
+      jpql.append(" and (s.date > :afterDate or (s.date = :afterDate and s.id > :afterId))");
+    }
+    jpql.append(" order by s.date, s.id");
+
+    TypedQuery<SessionDto> query = entityManager.createQuery(jpql.toString(), SessionDto.class);
+    if (from != null) {
+      query.setParameter("from", from);
+    }
+    if (to != null) {
+      query.setParameter("to", to);
+    }
+    if (teacherId != null) {
+      query.setParameter("teacherId", teacherId);
+    }
+    if (afterDate != null) {
+      query.setParameter("afterDate", afterDate);
+      query.setParameter("afterId", afterId);
+    }
+    return query.setMaxResults(limit).getResultList();
+  }
+
+  @Override
+  public void lockCachedParticipants(Long sessionId) {
+    SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+    CollectionPersister persister = session.getFactory().getMetamodel().collectionPersister(PARTICIPANTS_ROLE);
+    if (!persister.hasCache()) {
+      return;
+    }
+
+    // Same protocol as a collection update through the entity: concurrent loads neither read nor put the
+    // entry until the lock is released after the commit (or the rollback)
+    CollectionDataAccess cacheAccess = persister.getCacheAccessStrategy();
+    Object key = cacheAccess.generateCacheKey(sessionId, persister, session.getFactory(), session.getTenantIdentifier());
+    SoftLock lock = cacheAccess.lockItem(session, key, null);
+    session.getActionQueue().registerProcess((success, completedSession) -> cacheAccess.unlockItem(completedSession, key, lock));
+  }
+}
@@ -1,15 +1,36 @@
 package com.openclassrooms.starterjwt.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.openclassrooms.starterjwt.models.User;
 
 @Repository
-public interface UserRepository extends JpaRepository<User, Long> {
+public interface UserRepository extends JpaRepository<User, Long>, UserRepositoryCustom {
   Optional<User> findByEmail(String email);
 
   Boolean existsByEmail(String email); 
+
+  @Query("select u.email from User u")
+  List<String> findAllEmails();
+
+  @Query("select u.email from User u where u.email in :emails")
+  List<String> findExistingEmails(@Param("emails") Collection<String> emails);
+
+  // (email, password) pairs of the registered emails among the given ones
+  @Query("select u.email, u.password from User u where u.email in :emails")
+  List<Object[]> findPasswordsByEmail(@Param("emails") Collection<String> emails);
+
+  @Modifying
+  @Transactional
+  @Query("update User u set u.password = :password where u.id = :id")
+  int updatePassword(@Param("id") Long id, @Param("password") String password);
 }
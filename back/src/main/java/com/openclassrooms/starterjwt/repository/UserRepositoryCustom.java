@@ -0,0 +1,13 @@
+package com.openclassrooms.starterjwt.repository;
+
+import java.util.List;
+
+import com.openclassrooms.starterjwt.models.User;
+
+public interface UserRepositoryCustom {
+  /**
+   * Inserts the users with JDBC batching, skipping emails that are already registered. Update counts
+   * cannot tell the two apart, so callers look the rows up afterwards.
+   */
+  void insertAllSkippingDuplicates(List<User> users);
+}
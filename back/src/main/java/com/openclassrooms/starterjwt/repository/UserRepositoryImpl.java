@@ -0,0 +1,39 @@
+package com.openclassrooms.starterjwt.repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.openclassrooms.starterjwt.models.User;
+
+public class UserRepositoryImpl implements UserRepositoryCustom {
+  private static final int BATCH_SIZE = 500;
+
+  // A duplicate email leaves the existing row untouched; unlike INSERT IGNORE, any other error still fails
+  private static final String INSERT_USER =
+      "INSERT INTO USERS (email, last_name, first_name, password, admin, created_at, updated_at)"
+          + " VALUES (?, ?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE id = id";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  public UserRepositoryImpl(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  @Override
+  public void insertAllSkippingDuplicates(List<User> users) {
+    // Same timestamps as the auditing and @UpdateTimestamp of the JPA path
+    Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+    jdbcTemplate.batchUpdate(INSERT_USER, users, BATCH_SIZE, (statement, user) -> {
+      statement.setString(1, user.getEmail());
+      statement.setString(2, user.getLastName());
+      statement.setString(3, user.getFirstName());
+      statement.setString(4, user.getPassword());
+      statement.setBoolean(5, user.isAdmin());
+      statement.setTimestamp(6, now);
+      statement.setTimestamp(7, now);
+    });
+  }
+}
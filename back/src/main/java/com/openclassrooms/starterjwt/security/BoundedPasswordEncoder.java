@@ -0,0 +1,170 @@
+package com.openclassrooms.starterjwt.security;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import com.openclassrooms.starterjwt.exception.TooManyRequestsException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Runs password hashing on a dedicated, bounded pool so that a login burst cannot occupy every servlet
+ * worker. When the queue is full the caller fails fast with a TooManyRequestsException.
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder {
+  private final PasswordEncoder delegate;
+  private final ThreadPoolExecutor executor;
+  // Hashing threads bulk imports may hold at once, leaving at least one to interactive logins
+  private final Semaphore bulkThreads;
+  private final long retryAfterSeconds;
+  private final Timer hashTimer;
+  private final Counter rejectedCounter;
+
+  public BoundedPasswordEncoder(PasswordEncoder delegate, int threads, int queueCapacity, long retryAfterSeconds,
+      MeterRegistry meterRegistry) {
+    this.delegate = delegate;
+    this.retryAfterSeconds = retryAfterSeconds;
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), new HashingThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+    this.bulkThreads = new Semaphore(Math.max(1, threads - 1));
+
+    this.hashTimer = Timer.builder("password.hash.duration")
+        .description("Time spent hashing or verifying a password")
+        .register(meterRegistry);
+    this.rejectedCounter = Counter.builder("password.hash.rejected")
+        .description("Password hashing requests rejected because the queue was full")
+        .register(meterRegistry);
+    Gauge.builder("password.hash.queue.depth", executor, pool -> pool.getQueue().size())
+        .description("Password hashing requests waiting for a thread")
+        .register(meterRegistry);
+    Gauge.builder("password.hash.active", executor, ThreadPoolExecutor::getActiveCount)
+        .description("Password hashing requests currently running")
+        .register(meterRegistry);
+  }
+
+  @Override
+  public String encode(CharSequence rawPassword) {
+    return execute(() -> delegate.encode(rawPassword));
+  }
+
+  @Override
+  public boolean matches(CharSequence rawPassword, String encodedPassword) {
+    return execute(() -> delegate.matches(rawPassword, encodedPassword));
+  }
+
+  /**
+   * Encodes a batch of passwords in parallel, split into one task per hashing thread it may use. Bulk
+   * imports together never hold more than all but one of the threads, and are turned away with a
+   * TooManyRequestsException rather than waiting for another import to finish.
+   */
+  public List<String> encodeAll(List<? extends CharSequence> rawPasswords) {
+    if (rawPasswords.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    int partitions = Math.min(Math.max(1, executor.getCorePoolSize() - 1), rawPasswords.size());
+    if (!bulkThreads.tryAcquire(partitions)) {
+      rejectedCounter.increment();
+      throw new TooManyRequestsException(retryAfterSeconds);
+    }
+    try {
+      return encodeAll(rawPasswords, partitions);
+    } finally {
+      bulkThreads.release(partitions);
+    }
+  }
+
+  private List<String> encodeAll(List<? extends CharSequence> rawPasswords, int partitions) {
+    int partitionSize = (rawPasswords.size() + partitions - 1) / partitions;
+
+    List<Future<List<String>>> futures = new ArrayList<>(partitions);
+    try {
+      for (int from = 0; from < rawPasswords.size(); from += partitionSize) {
+        List<? extends CharSequence> partition = rawPasswords.subList(from, Math.min(rawPasswords.size(), from + partitionSize));
+        futures.add(executor.submit(() -> {
+          List<String> encoded = new ArrayList<>(partition.size());
+          for (CharSequence rawPassword : partition) {
+            encoded.add(hashTimer.recordCallable(() -> delegate.encode(rawPassword)));
+          }
+          return encoded;
+        }));
+      }
+    } catch (RejectedExecutionException e) {
+      futures.forEach(future -> future.cancel(true));
+      rejectedCounter.increment();
+      throw new TooManyRequestsException(retryAfterSeconds);
+    }
+
+    List<String> encoded = new ArrayList<>(rawPasswords.size());
+    for (Future<List<String>> future : futures) {
+      encoded.addAll(await(future));
+    }
+    return encoded;
+  }
+
+  @Override
+  public boolean upgradeEncoding(String encodedPassword) {
+    return delegate.upgradeEncoding(encodedPassword);
+  }
+
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  private <T> T execute(Callable<T> task) {
+    Future<T> future;
+    try {
+      future = executor.submit(() -> hashTimer.recordCallable(task));
+    } catch (RejectedExecutionException e) {
+      rejectedCounter.increment();
+      throw new TooManyRequestsException(retryAfterSeconds);
+    }
+
+    return await(future);
+  }
+
+  private <T> T await(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for password hashing", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static class HashingThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "password-hash-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package com.openclassrooms.starterjwt.security;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ * BCrypt encoder whose cost factor is chosen at startup to hit a target hashing latency on the current
+ * hardware. Hashes stored with any other cost are reported for re-encoding, upwards or downwards.
+ */
+public class CalibratedBCryptPasswordEncoder extends BCryptPasswordEncoder {
+  private static final Logger logger = LoggerFactory.getLogger(CalibratedBCryptPasswordEncoder.class);
+
+  private static final Pattern BCRYPT_COST_PATTERN = Pattern.compile("\\A\\$2[aby]?\\$(\\d\\d)\\$[./0-9A-Za-z]{53}");
+
+  private static final int REFERENCE_STRENGTH = 8;
+  private static final int MEASURED_RUNS = 3;
+
+  private final int strength;
+
+  public CalibratedBCryptPasswordEncoder(int strength) {
+    super(strength);
+    this.strength = strength;
+  }
+
+  public static CalibratedBCryptPasswordEncoder calibrate(long targetMillis, int minStrength, int maxStrength) {
+    int referenceStrength = Math.max(4, Math.min(REFERENCE_STRENGTH, maxStrength));
+    long referenceNanos = measureHashNanos(referenceStrength);
+
+    // Each extra cost round doubles the work, so the target cost follows from a single measurement
+    // (targets under a millisecond are treated as one millisecond)
+    double ratio = Math.max(1_000_000d, targetMillis * 1_000_000d) / Math.max(1, referenceNanos);
+    int strength = referenceStrength + (int) Math.round(Math.log(ratio) / Math.log(2));
+    strength = Math.max(minStrength, Math.min(maxStrength, strength));
+
+    logger.info("BCrypt cost {} selected for a {} ms target ({} ms measured at cost {})",
+        strength, targetMillis, referenceNanos / 1_000_000d, referenceStrength);
+
+    return new CalibratedBCryptPasswordEncoder(strength);
+  }
+
+  public int getStrength() {
+    return strength;
+  }
+
+  @Override
+  public boolean upgradeEncoding(String encodedPassword) {
+    if (encodedPassword == null) {
+      return false;
+    }
+
+    Matcher matcher = BCRYPT_COST_PATTERN.matcher(encodedPassword);
+    return matcher.find() && Integer.parseInt(matcher.group(1)) != strength;
+  }
+
+  private static long measureHashNanos(int strength) {
+    BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(strength);
+    encoder.encode("calibration-warmup");
+
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < MEASURED_RUNS; i++) {
+      long start = System.nanoTime();
+      encoder.encode("calibration-password");
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+}
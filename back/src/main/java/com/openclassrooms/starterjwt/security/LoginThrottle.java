@@ -0,0 +1,183 @@
+package com.openclassrooms.starterjwt.security;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.openclassrooms.starterjwt.exception.TooManyRequestsException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Limits login attempts per email and per client address before any password is verified.
+ *
+ * Each key owns a token bucket kept as a single AtomicLong in the GCRA form: the long holds the
+ * theoretical arrival time of the next attempt, which encodes both the tokens left and the last refill,
+ * so taking or giving back a token is one compare-and-set. Buckets live in striped maps; a bucket that
+ * has refilled completely is indistinguishable from a new one and is dropped by the sweep. A stripe
+ * that is full of active buckets turns new keys away instead of evicting any of them.
+ */
+@Component
+public class LoginThrottle {
+  private final Limiter emailLimiter;
+  private final Limiter addressLimiter;
+
+  public LoginThrottle(MeterRegistry meterRegistry,
+      @Value("${oc.app.loginThrottleEmailBurst:5}") int emailBurst,
+      @Value("${oc.app.loginThrottleEmailPerMinute:5}") int emailPerMinute,
+      @Value("${oc.app.loginThrottleAddressBurst:50}") int addressBurst,
+      @Value("${oc.app.loginThrottleAddressPerMinute:60}") int addressPerMinute,
+      @Value("${oc.app.loginThrottleStripes:64}") int stripes,
+      @Value("${oc.app.loginThrottleMaxKeysPerStripe:16384}") int maxKeysPerStripe) {
+    this.emailLimiter = new Limiter("email", emailBurst, emailPerMinute, stripes, maxKeysPerStripe, meterRegistry);
+    this.addressLimiter = new Limiter("address", addressBurst, addressPerMinute, stripes, maxKeysPerStripe, meterRegistry);
+  }
+
+  /**
+   * Takes one attempt from the address and the email buckets, or throws a TooManyRequestsException
+   * without taking anything when either is empty. The address is checked first, so that attempts it
+   * rejects never create or touch the bucket of the email they name.
+   */
+  public void acquire(String email, String remoteAddress) {
+    long now = System.nanoTime();
+    String emailKey = emailKey(email);
+
+    long retryAfterNanos = addressLimiter.tryAcquire(remoteAddress, now);
+    if (retryAfterNanos == 0) {
+      retryAfterNanos = emailLimiter.tryAcquire(emailKey, now);
+      if (retryAfterNanos != 0) {
+        addressLimiter.release(remoteAddress);
+      }
+    }
+
+    if (retryAfterNanos != 0) {
+      throw new TooManyRequestsException(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(retryAfterNanos + 999_999_999L)));
+    }
+  }
+
+  /**
+   * Gives back the email attempt taken by acquire, called after a successful login so that only
+   * failures count against the email. The address keeps its attempt: otherwise a client holding one
+   * valid account could log into it between guesses and never run out.
+   */
+  public void release(String email) {
+    emailLimiter.release(emailKey(email));
+  }
+
+  @Scheduled(fixedDelayString = "#{${oc.app.loginThrottleSweepSeconds:60} * 1000}")
+  public void sweep() {
+    long now = System.nanoTime();
+    emailLimiter.sweep(now);
+    addressLimiter.sweep(now);
+  }
+
+  private static String emailKey(String email) {
+    return email == null ? "" : email.toLowerCase(Locale.ROOT);
+  }
+
+  private static class Limiter {
+    private final boolean enabled;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final int maxKeysPerStripe;
+    private final ConcurrentHashMap<String, AtomicLong>[] stripes;
+    private final Counter throttledCounter;
+
+    @SuppressWarnings("unchecked")
+    Limiter(String name, int burst, int perMinute, int stripeCount, int maxKeysPerStripe, MeterRegistry meterRegistry) {
+      this.enabled = burst > 0 && perMinute > 0;
+      this.intervalNanos = enabled ? TimeUnit.MINUTES.toNanos(1) / perMinute : 0;
+      this.toleranceNanos = enabled ? intervalNanos * (burst - 1) : 0;
+      this.maxKeysPerStripe = maxKeysPerStripe;
+      this.stripes = new ConcurrentHashMap[Math.max(1, stripeCount)];
+      for (int i = 0; i < stripes.length; i++) {
+        stripes[i] = new ConcurrentHashMap<>();
+      }
+
+      this.throttledCounter = Counter.builder("login.throttled")
+          .description("Login attempts rejected before password verification")
+          .tag("key", name)
+          .register(meterRegistry);
+      Gauge.builder("login.throttle.keys", this, Limiter::size)
+          .description("Login throttle buckets currently tracked")
+          .tag("key", name)
+          .register(meterRegistry);
+    }
+
+    // Returns 0 when the attempt is allowed, otherwise the nanoseconds until it would be
+    long tryAcquire(String key, long now) {
+      if (!enabled || key == null) {
+        return 0;
+      }
+
+      ConcurrentHashMap<String, AtomicLong> stripe = stripe(key);
+      AtomicLong bucket = stripe.get(key);
+      if (bucket == null) {
+        if (stripe.size() >= maxKeysPerStripe) {
+          sweep(stripe, now);
+          // Still full of active buckets: refuse new keys until some refill, rather than drop tracked ones.
+          // Stripe indexes are predictable, so dropping buckets would let anyone reset a chosen key.
+          if (stripe.size() >= maxKeysPerStripe) {
+            throttledCounter.increment();
+            return intervalNanos;
+          }
+        }
+        bucket = stripe.computeIfAbsent(key, k -> new AtomicLong(now));
+      }
+
+      while (true) {
+        long arrival = bucket.get();
+        long next = Math.max(arrival, now) + intervalNanos;
+        long wait = next - now - intervalNanos - toleranceNanos;
+        if (wait > 0) {
+          throttledCounter.increment();
+          return wait;
+        }
+        if (bucket.compareAndSet(arrival, next)) {
+          return 0;
+        }
+      }
+    }
+
+    void release(String key) {
+      if (!enabled || key == null) {
+        return;
+      }
+
+      AtomicLong bucket = stripe(key).get(key);
+      if (bucket != null) {
+        bucket.addAndGet(-intervalNanos);
+      }
+    }
+
+    void sweep(long now) {
+      for (ConcurrentHashMap<String, AtomicLong> stripe : stripes) {
+        sweep(stripe, now);
+      }
+    }
+
+    private void sweep(ConcurrentHashMap<String, AtomicLong> stripe, long now) {
+      stripe.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+
+    private ConcurrentHashMap<String, AtomicLong> stripe(String key) {
+      int hash = key.hashCode();
+      return stripes[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    private long size() {
+      long size = 0;
+      for (ConcurrentHashMap<String, AtomicLong> stripe : stripes) {
+        size += stripe.size();
+      }
+      return size;
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.openclassrooms.starterjwt.security;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -10,14 +11,14 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.config.http.SessionCreationPolicy;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
 import com.openclassrooms.starterjwt.security.jwt.AuthEntryPointJwt;
 import com.openclassrooms.starterjwt.security.jwt.AuthTokenFilter;
 import com.openclassrooms.starterjwt.security.services.UserDetailsServiceImpl;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 @Configuration
 @EnableWebSecurity
 @EnableGlobalMethodSecurity(
@@ -31,6 +32,27 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
   @Autowired
   private AuthEntryPointJwt unauthorizedHandler;
 
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${oc.app.passwordHashThreads:0}")
+  private int passwordHashThreads;
+
+  @Value("${oc.app.passwordHashQueueCapacity:32}")
+  private int passwordHashQueueCapacity;
+
+  @Value("${oc.app.passwordHashRetryAfterSeconds:1}")
+  private long passwordHashRetryAfterSeconds;
+
+  @Value("${oc.app.passwordHashTargetMs:100}")
+  private long passwordHashTargetMs;
+
+  @Value("${oc.app.passwordHashMinStrength:10}")
+  private int passwordHashMinStrength;
+
+  @Value("${oc.app.passwordHashMaxStrength:16}")
+  private int passwordHashMaxStrength;
+
   @Bean
   public AuthTokenFilter authenticationJwtTokenFilter() {
     return new AuthTokenFilter();
@@ -48,8 +70,15 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
   }
 
   @Bean
-  public PasswordEncoder passwordEncoder() {
-    return new BCryptPasswordEncoder();
+  public BoundedPasswordEncoder passwordEncoder() {
+    int threads = passwordHashThreads > 0 ? passwordHashThreads : Runtime.getRuntime().availableProcessors();
+
+    return new BoundedPasswordEncoder(
+        CalibratedBCryptPasswordEncoder.calibrate(passwordHashTargetMs, passwordHashMinStrength, passwordHashMaxStrength),
+        threads,
+        passwordHashQueueCapacity,
+        passwordHashRetryAfterSeconds,
+        meterRegistry);
   }
 
   @Override
@@ -0,0 +1,81 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Counts authentication failures per reason and logs one summary per interval instead of a line per
+ * request, so that a token-spraying burst neither floods the log nor contends on a lock.
+ */
+@Component
+public class AuthFailureMonitor {
+  private static final Logger logger = LoggerFactory.getLogger(AuthFailureMonitor.class);
+
+  public enum Reason {
+    EXPIRED, PREMATURE, BAD_SIGNATURE, MALFORMED, UNSUPPORTED, EMPTY, REVOKED, REFRESH_REUSE, UNAUTHORIZED,
+    UNKNOWN_USER, INTERNAL
+  }
+
+  private final Map<Reason, LongAdder> totals = new EnumMap<>(Reason.class);
+  private final Map<Reason, LongAdder> sinceLastSummary = new EnumMap<>(Reason.class);
+  // Written from request threads and read by the scheduled summary, indexed by reason ordinal
+  private final AtomicReferenceArray<String> lastDetails = new AtomicReferenceArray<>(Reason.values().length);
+
+  public AuthFailureMonitor(MeterRegistry meterRegistry) {
+    for (Reason reason : Reason.values()) {
+      LongAdder total = new LongAdder();
+      totals.put(reason, total);
+      sinceLastSummary.put(reason, new LongAdder());
+
+      FunctionCounter.builder("auth.failures", total, LongAdder::sum)
+          .description("Rejected tokens and unauthorized requests")
+          .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+          .register(meterRegistry);
+    }
+  }
+
+  public void record(Reason reason, String detail) {
+    totals.get(reason).increment();
+    sinceLastSummary.get(reason).increment();
+    // A racy overwrite is fine, the summary only shows one recent example per reason
+    lastDetails.set(reason.ordinal(), detail);
+
+    if (logger.isDebugEnabled()) {
+      logger.debug("Authentication failure ({}): {}", reason, detail);
+    }
+  }
+
+  public long getCount(Reason reason) {
+    return totals.get(reason).sum();
+  }
+
+  @Scheduled(fixedDelayString = "#{${oc.app.authFailureLogIntervalSeconds:60} * 1000}")
+  public void logSummary() {
+    StringBuilder summary = null;
+    for (Reason reason : Reason.values()) {
+      long count = sinceLastSummary.get(reason).sumThenReset();
+      if (count == 0) {
+        continue;
+      }
+
+      summary = summary == null ? new StringBuilder() : summary.append(", ");
+      summary.append(reason.name().toLowerCase(Locale.ROOT)).append('=').append(count)
+          .append(" (last: ").append(lastDetails.get(reason.ordinal())).append(')');
+    }
+
+    if (summary != null) {
+      logger.warn("Authentication failures since last summary: {}", summary);
+    }
+  }
+}
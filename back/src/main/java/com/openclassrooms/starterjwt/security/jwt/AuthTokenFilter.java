@@ -10,15 +10,19 @@ import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import com.openclassrooms.starterjwt.security.services.UserDetailsServiceImpl;
 
+import io.jsonwebtoken.Claims;
+
 public class AuthTokenFilter extends OncePerRequestFilter {
   @Autowired
   private JwtUtils jwtUtils;
@@ -26,6 +30,15 @@ public class AuthTokenFilter extends OncePerRequestFilter {
   @Autowired
   private UserDetailsServiceImpl userDetailsService;
 
+  @Autowired
+  private TokenDenylist tokenDenylist;
+
+  @Autowired
+  private AuthFailureMonitor authFailureMonitor;
+
+  @Value("${oc.app.jwtStatelessPrincipal:false}")
+  private boolean statelessPrincipal;
+
   private static final Logger logger = LoggerFactory.getLogger(AuthTokenFilter.class);
 
   @Override
@@ -33,10 +46,15 @@ public class AuthTokenFilter extends OncePerRequestFilter {
       throws ServletException, IOException {
     try {
       String jwt = parseJwt(request);
-      if (jwt != null && jwtUtils.validateJwtToken(jwt)) {
-        String username = jwtUtils.getUserNameFromJwtToken(jwt);
+      Claims claims = jwt != null ? jwtUtils.verifyJwtToken(jwt) : null;
+      if (claims != null && tokenDenylist.isRevoked(claims.getId())) {
+        authFailureMonitor.record(AuthFailureMonitor.Reason.REVOKED, claims.getSubject());
+      } else if (claims != null) {
+        UserDetails userDetails = statelessPrincipal ? jwtUtils.getUserDetailsFromClaims(claims) : null;
+        if (userDetails == null) {
+          userDetails = userDetailsService.loadUserByUsername(claims.getSubject());
+        }
 
-        UserDetails userDetails = userDetailsService.loadUserByUsername(username);
         UsernamePasswordAuthenticationToken authentication =
             new UsernamePasswordAuthenticationToken(
                 userDetails,
@@ -46,14 +64,19 @@ public class AuthTokenFilter extends OncePerRequestFilter {
 
         SecurityContextHolder.getContext().setAuthentication(authentication);
       }
+    } catch (UsernameNotFoundException e) {
+      // A valid token whose user has since been deleted
+      authFailureMonitor.record(AuthFailureMonitor.Reason.UNKNOWN_USER, e.getMessage());
     } catch (Exception e) {
-      logger.error("Cannot set user authentication: {}", e);
+      // Any client can reach this path, so failures are aggregated rather than logged one by one
+      authFailureMonitor.record(AuthFailureMonitor.Reason.INTERNAL, e.toString());
+      logger.debug("Cannot set user authentication", e);
     }
 
     filterChain.doFilter(request, response);
   }
 
-  private String parseJwt(HttpServletRequest request) {
+  public static String parseJwt(HttpServletRequest request) {
     String headerAuth = request.getHeader("Authorization");
 
     if (StringUtils.hasText(headerAuth) && headerAuth.startsWith("Bearer ")) {
@@ -0,0 +1,189 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.impl.TextCodec;
+
+/**
+ * Signing and verification keys indexed by their kid header.
+ *
+ * Keys are configured as comma-separated "kid=ALG:material" entries, where ALG is HS512 (base64 secret)
+ * or RS256 (base64 PKCS#8 private key, or X.509 public key for nodes that only verify). The legacy
+ * oc.app.jwtSecret is always present under the "default" kid and also verifies tokens without a kid.
+ *
+ * To rotate: add the new key everywhere, then point the active kid at it, and drop the old key once
+ * the tokens it signed have expired.
+ *
+ * Mac and Signature instances are not thread-safe, so each key keeps one initialised instance per
+ * thread instead of building a new one for every token.
+ */
+public class JwtKeyRing {
+  public static final String DEFAULT_KEY_ID = "default";
+
+  private final Map<String, JwtKey> keys;
+  private final JwtKey activeKey;
+
+  private JwtKeyRing(Map<String, JwtKey> keys, JwtKey activeKey) {
+    this.keys = keys;
+    this.activeKey = activeKey;
+  }
+
+  public static JwtKeyRing of(String defaultSecret, String configuredKeys, String activeKeyId) {
+    Map<String, JwtKey> keys = new HashMap<>();
+    keys.put(DEFAULT_KEY_ID, hmacKey(DEFAULT_KEY_ID, TextCodec.BASE64.decode(defaultSecret)));
+
+    if (configuredKeys != null) {
+      for (String entry : configuredKeys.split(",")) {
+        if (entry.trim().isEmpty()) {
+          continue;
+        }
+
+        int equals = entry.indexOf('=');
+        int colon = entry.indexOf(':', equals + 1);
+        if (equals <= 0 || colon < 0) {
+          throw new IllegalArgumentException("JWT key entries must look like kid=ALG:material, got: " + entry.trim());
+        }
+
+        String kid = entry.substring(0, equals).trim();
+        String algorithm = entry.substring(equals + 1, colon).trim();
+        byte[] material = Base64.getDecoder().decode(entry.substring(colon + 1).trim());
+        keys.put(kid, parseKey(kid, algorithm, material));
+      }
+    }
+
+    String activeId = activeKeyId == null || activeKeyId.isEmpty() ? DEFAULT_KEY_ID : activeKeyId;
+    JwtKey activeKey = keys.get(activeId);
+    if (activeKey == null || activeKey.signingKey == null) {
+      throw new IllegalArgumentException("The active JWT key '" + activeId + "' is missing or cannot sign");
+    }
+    return new JwtKeyRing(keys, activeKey);
+  }
+
+  public JwtKey getActiveKey() {
+    return activeKey;
+  }
+
+  /**
+   * Returns the key for the kid header, the default key for tokens issued without one, or null.
+   */
+  public JwtKey getKey(String kid) {
+    return keys.get(kid != null ? kid : DEFAULT_KEY_ID);
+  }
+
+  private static JwtKey parseKey(String kid, String algorithm, byte[] material) {
+    if (SignatureAlgorithm.HS512.getValue().equals(algorithm)) {
+      return hmacKey(kid, material);
+    }
+    if (!SignatureAlgorithm.RS256.getValue().equals(algorithm)) {
+      throw new IllegalArgumentException("Unsupported JWT key algorithm for '" + kid + "': " + algorithm);
+    }
+
+    try {
+      KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+      PrivateKey privateKey;
+      PublicKey publicKey;
+      try {
+        privateKey = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(material));
+        RSAPrivateCrtKey crtKey = (RSAPrivateCrtKey) privateKey;
+        publicKey = keyFactory.generatePublic(new RSAPublicKeySpec(crtKey.getModulus(), crtKey.getPublicExponent()));
+      } catch (GeneralSecurityException | ClassCastException e) {
+        // Verification-only node: the material is the public key
+        privateKey = null;
+        publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(material));
+      }
+      return rsaKey(kid, privateKey, publicKey);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalArgumentException("Invalid RS256 key material for '" + kid + "'", e);
+    }
+  }
+
+  private static JwtKey hmacKey(String kid, byte[] secret) {
+    SecretKeySpec key = new SecretKeySpec(secret, SignatureAlgorithm.HS512.getJcaName());
+    ThreadLocal<Mac> macs = ThreadLocal.withInitial(() -> {
+      try {
+        Mac mac = Mac.getInstance(SignatureAlgorithm.HS512.getJcaName());
+        mac.init(key);
+        return mac;
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    return new JwtKey(kid, SignatureAlgorithm.HS512, key,
+        (signed, signature) -> MessageDigest.isEqual(macs.get().doFinal(signed), signature));
+  }
+
+  private static JwtKey rsaKey(String kid, PrivateKey privateKey, PublicKey publicKey) {
+    ThreadLocal<Signature> verifiers = ThreadLocal.withInitial(() -> {
+      try {
+        Signature verifier = Signature.getInstance(SignatureAlgorithm.RS256.getJcaName());
+        verifier.initVerify(publicKey);
+        return verifier;
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    return new JwtKey(kid, SignatureAlgorithm.RS256, privateKey, (signed, signature) -> {
+      // verify() resets the instance to its initVerify state, ready for the next token
+      Signature verifier = verifiers.get();
+      try {
+        verifier.update(signed);
+        return verifier.verify(signature);
+      } catch (GeneralSecurityException e) {
+        return false;
+      }
+    });
+  }
+
+  public static final class JwtKey {
+    private final String kid;
+    private final SignatureAlgorithm algorithm;
+    private final Key signingKey;
+    private final Verifier verifier;
+
+    private JwtKey(String kid, SignatureAlgorithm algorithm, Key signingKey, Verifier verifier) {
+      this.kid = kid;
+      this.algorithm = algorithm;
+      this.signingKey = signingKey;
+      this.verifier = verifier;
+    }
+
+    public String getKid() {
+      return kid;
+    }
+
+    public SignatureAlgorithm getAlgorithm() {
+      return algorithm;
+    }
+
+    public Key getSigningKey() {
+      return signingKey;
+    }
+
+    public boolean verify(byte[] signed, byte[] signature) {
+      return verifier.verify(signed, signature);
+    }
+  }
+
+  private interface Verifier {
+    boolean verify(byte[] signed, byte[] signature);
+  }
+}
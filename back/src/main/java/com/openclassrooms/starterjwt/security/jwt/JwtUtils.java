@@ -1,59 +1,253 @@
 package com.openclassrooms.starterjwt.security.jwt;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Component;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.openclassrooms.starterjwt.security.jwt.AuthFailureMonitor.Reason;
 import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
 
-import io.jsonwebtoken.*;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.impl.DefaultClaims;
 
 @Component
 public class JwtUtils {
-  private static final Logger logger = LoggerFactory.getLogger(JwtUtils.class);
+  private static final String ID_CLAIM = "id";
+  private static final String FIRST_NAME_CLAIM = "firstName";
+  private static final String LAST_NAME_CLAIM = "lastName";
+  private static final String ADMIN_CLAIM = "admin";
+
+  private static final ObjectReader JSON_READER = new ObjectMapper().readerFor(new TypeReference<Map<String, Object>>() { });
+  private static final Base64.Decoder BASE64_URL = Base64.getUrlDecoder();
+
+  private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  });
+
+  @Autowired
+  private AuthFailureMonitor authFailureMonitor;
 
   @Value("${oc.app.jwtSecret}")
   private String jwtSecret;
 
+  @Value("${oc.app.jwtKeys:}")
+  private String jwtKeys;
+
+  @Value("${oc.app.jwtActiveKeyId:default}")
+  private String jwtActiveKeyId;
+
   @Value("${oc.app.jwtExpirationMs}")
   private int jwtExpirationMs;
 
+  @Value("${oc.app.jwtCacheSize:10000}")
+  private int jwtCacheSize;
+
+  // Verified tokens keyed by their SHA-256 digest, each entry living until its token expires
+  private Cache<String, Claims> verifiedTokens;
+
+  private JwtKeyRing keyRing;
+
+  @PostConstruct
+  public void init() {
+    keyRing = JwtKeyRing.of(jwtSecret, jwtKeys, jwtActiveKeyId);
+
+    if (jwtCacheSize <= 0) {
+      verifiedTokens = null;
+      return;
+    }
+
+    verifiedTokens = Caffeine.newBuilder()
+        .maximumSize(jwtCacheSize)
+        .expireAfter(new Expiry<String, Claims>() {
+          @Override
+          public long expireAfterCreate(String key, Claims claims, long currentTime) {
+            Date expiration = claims.getExpiration();
+            if (expiration == null) {
+              return 0;
+            }
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, expiration.getTime() - System.currentTimeMillis()));
+          }
+
+          @Override
+          public long expireAfterUpdate(String key, Claims claims, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+
+          @Override
+          public long expireAfterRead(String key, Claims claims, long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .build();
+  }
+
   public String generateJwtToken(Authentication authentication) {
+    return generateJwtToken((UserDetailsImpl) authentication.getPrincipal());
+  }
 
-    UserDetailsImpl userPrincipal = (UserDetailsImpl) authentication.getPrincipal();
+  public String generateJwtToken(UserDetailsImpl userPrincipal) {
+    JwtKeyRing.JwtKey signingKey = keyRing.getActiveKey();
 
     return Jwts.builder()
+        .setHeaderParam(JwsHeader.KEY_ID, signingKey.getKid())
+        .setId(UUID.randomUUID().toString())
         .setSubject((userPrincipal.getUsername()))
+        .claim(ID_CLAIM, userPrincipal.getId())
+        .claim(FIRST_NAME_CLAIM, userPrincipal.getFirstName())
+        .claim(LAST_NAME_CLAIM, userPrincipal.getLastName())
+        .claim(ADMIN_CLAIM, userPrincipal.getAdmin())
         .setIssuedAt(new Date())
         .setExpiration(new Date((new Date()).getTime() + jwtExpirationMs))
-        .signWith(SignatureAlgorithm.HS512, jwtSecret)
+        .signWith(signingKey.getAlgorithm(), signingKey.getSigningKey())
         .compact();
   }
 
+  /**
+   * Parses and verifies the token once, returning its claims, or null when the token is not valid.
+   * Tokens already verified are served from a bounded cache until they expire.
+   */
+  public Claims verifyJwtToken(String authToken) {
+    if (authToken == null || authToken.isEmpty()) {
+      authFailureMonitor.record(Reason.EMPTY, "JWT claims string is empty");
+      return null;
+    }
+
+    if (verifiedTokens == null) {
+      return parseJwtToken(authToken);
+    }
+
+    String digest = digest(authToken);
+    Claims claims = verifiedTokens.getIfPresent(digest);
+    if (claims != null) {
+      return claims;
+    }
+
+    claims = parseJwtToken(authToken);
+    if (claims != null) {
+      verifiedTokens.put(digest, claims);
+    }
+    return claims;
+  }
+
+  /**
+   * Rebuilds the principal from the claims embedded by generateJwtToken, or returns null for tokens
+   * issued without them.
+   */
+  public UserDetailsImpl getUserDetailsFromClaims(Claims claims) {
+    Object id = claims.get(ID_CLAIM);
+    if (!(id instanceof Number)) {
+      return null;
+    }
+
+    return UserDetailsImpl
+        .builder()
+        .id(((Number) id).longValue())
+        .username(claims.getSubject())
+        .firstName(claims.get(FIRST_NAME_CLAIM, String.class))
+        .lastName(claims.get(LAST_NAME_CLAIM, String.class))
+        .admin(Boolean.TRUE.equals(claims.get(ADMIN_CLAIM, Boolean.class)))
+        .build();
+  }
+
   public String getUserNameFromJwtToken(String token) {
-    return Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(token).getBody().getSubject();
+    Claims claims = verifyJwtToken(token);
+    return claims != null ? claims.getSubject() : null;
   }
 
   public boolean validateJwtToken(String authToken) {
+    return verifyJwtToken(authToken) != null;
+  }
+
+  /**
+   * Verifies the signature with the key named by the kid header, reusing that key's per-thread Mac or
+   * Signature, then decodes the claims and checks the expiry and not-before dates.
+   */
+  private Claims parseJwtToken(String authToken) {
+    int firstDot = authToken.indexOf('.');
+    int secondDot = firstDot < 0 ? -1 : authToken.indexOf('.', firstDot + 1);
+    if (secondDot < 0 || authToken.indexOf('.', secondDot + 1) >= 0) {
+      authFailureMonitor.record(Reason.MALFORMED, "JWT strings must contain exactly 2 period characters");
+      return null;
+    }
+
     try {
-      Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(authToken);
-      return true;
-    } catch (SignatureException e) {
-      logger.error("Invalid JWT signature: {}", e.getMessage());
-    } catch (MalformedJwtException e) {
-      logger.error("Invalid JWT token: {}", e.getMessage());
-    } catch (ExpiredJwtException e) {
-      logger.error("JWT token is expired: {}", e.getMessage());
-    } catch (UnsupportedJwtException e) {
-      logger.error("JWT token is unsupported: {}", e.getMessage());
-    } catch (IllegalArgumentException e) {
-      logger.error("JWT claims string is empty: {}", e.getMessage());
-    }
-
-    return false;
+      Map<String, Object> header = readJsonObject(authToken.substring(0, firstDot));
+      if (header == null) {
+        authFailureMonitor.record(Reason.MALFORMED, "JWT header is not a JSON object");
+        return null;
+      }
+      Object kid = header.get(JwsHeader.KEY_ID);
+      JwtKeyRing.JwtKey key = kid == null || kid instanceof String ? keyRing.getKey((String) kid) : null;
+      if (key == null || !key.getAlgorithm().getValue().equals(header.get(JwsHeader.ALGORITHM))) {
+        authFailureMonitor.record(Reason.UNSUPPORTED, "Unknown JWT key id or algorithm: " + kid + "/" + header.get(JwsHeader.ALGORITHM));
+        return null;
+      }
+
+      byte[] signature = BASE64_URL.decode(authToken.substring(secondDot + 1));
+      if (!key.verify(authToken.substring(0, secondDot).getBytes(StandardCharsets.US_ASCII), signature)) {
+        authFailureMonitor.record(Reason.BAD_SIGNATURE, "JWT signature does not match for key " + key.getKid());
+        return null;
+      }
+
+      Map<String, Object> body = readJsonObject(authToken.substring(firstDot + 1, secondDot));
+      if (body == null) {
+        authFailureMonitor.record(Reason.MALFORMED, "JWT claims are not a JSON object");
+        return null;
+      }
+      Claims claims = new DefaultClaims(body);
+      long now = System.currentTimeMillis();
+      Date expiration = claims.getExpiration();
+      if (expiration != null && expiration.getTime() <= now) {
+        authFailureMonitor.record(Reason.EXPIRED, "JWT expired at " + expiration.toInstant());
+        return null;
+      }
+      Date notBefore = claims.getNotBefore();
+      if (notBefore != null && notBefore.getTime() > now) {
+        authFailureMonitor.record(Reason.PREMATURE, "JWT must not be accepted before " + notBefore.toInstant());
+        return null;
+      }
+      return claims;
+    } catch (IOException | IllegalArgumentException | JwtException e) {
+      // JwtException covers registered claims of the wrong type, such as a string exp
+      authFailureMonitor.record(Reason.MALFORMED, e.getMessage());
+      return null;
+    }
+  }
+
+  // Null for a segment holding JSON null; other non-object values fail to bind with an IOException
+  private static Map<String, Object> readJsonObject(String segment) throws IOException {
+    return JSON_READER.readValue(BASE64_URL.decode(segment));
+  }
+
+  private static String digest(String token) {
+    MessageDigest sha256 = SHA_256.get();
+    sha256.reset();
+    return Base64.getEncoder().encodeToString(sha256.digest(token.getBytes(StandardCharsets.US_ASCII)));
   }
 }
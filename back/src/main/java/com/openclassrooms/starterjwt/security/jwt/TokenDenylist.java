@@ -0,0 +1,101 @@
+package com.openclassrooms.starterjwt.security.jwt;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.openclassrooms.starterjwt.models.RevokedToken;
+import com.openclassrooms.starterjwt.repository.RevokedTokenRepository;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Revoked token ids, held until the token would have expired anyway. Lookups are a single hash probe
+ * on the jti already parsed from the claims. Entries are also grouped by expiry into fixed-width time
+ * buckets so that the sweep drops whole buckets instead of scanning every entry.
+ *
+ * Revocations are written to REVOKED_TOKENS and reloaded at startup, so a restart does not bring
+ * revoked tokens back.
+ */
+@Component
+public class TokenDenylist {
+  private static final Logger logger = LoggerFactory.getLogger(TokenDenylist.class);
+
+  private final RevokedTokenRepository revokedTokenRepository;
+  private final long bucketMillis;
+
+  private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<Long, Set<String>> buckets = new ConcurrentSkipListMap<>();
+
+  public TokenDenylist(RevokedTokenRepository revokedTokenRepository,
+      MeterRegistry meterRegistry,
+      @Value("${oc.app.jwtDenylistBucketSeconds:60}") long bucketSeconds) {
+    this.revokedTokenRepository = revokedTokenRepository;
+    this.bucketMillis = Math.max(1, bucketSeconds) * 1000;
+
+    Gauge.builder("jwt.denylist.size", revoked, Map::size)
+        .description("Revoked tokens that have not expired yet")
+        .register(meterRegistry);
+  }
+
+  @PostConstruct
+  public void init() {
+    List<RevokedToken> revokedTokens = revokedTokenRepository.findByExpiresAtAfter(LocalDateTime.now());
+    for (RevokedToken revokedToken : revokedTokens) {
+      remember(revokedToken.getJti(), revokedToken.getExpiresAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    logger.info("Token denylist loaded with {} revoked tokens", revokedTokens.size());
+  }
+
+  public boolean isRevoked(String jti) {
+    return jti != null && revoked.containsKey(jti);
+  }
+
+  public void revoke(String jti, Date expiration) {
+    long expiresAt = expiration.getTime();
+    if (expiresAt <= System.currentTimeMillis() || revoked.containsKey(jti)) {
+      return;
+    }
+
+    revokedTokenRepository.insertIfAbsent(jti,
+        LocalDateTime.ofInstant(Instant.ofEpochMilli(expiresAt), ZoneId.systemDefault()));
+    remember(jti, expiresAt);
+  }
+
+  /**
+   * Drops every bucket whose tokens have all expired, then the matching rows.
+   */
+  @Scheduled(fixedDelayString = "#{${oc.app.jwtDenylistBucketSeconds:60} * 1000}")
+  public void sweep() {
+    long currentBucket = System.currentTimeMillis() / bucketMillis;
+
+    Map.Entry<Long, Set<String>> bucket;
+    while ((bucket = buckets.firstEntry()) != null && bucket.getKey() < currentBucket) {
+      buckets.remove(bucket.getKey());
+      bucket.getValue().forEach(revoked::remove);
+    }
+
+    revokedTokenRepository.deleteExpired(LocalDateTime.now());
+  }
+
+  private void remember(String jti, long expiresAt) {
+    revoked.put(jti, expiresAt);
+    buckets.computeIfAbsent(expiresAt / bucketMillis, key -> ConcurrentHashMap.newKeySet()).add(jti);
+  }
+}
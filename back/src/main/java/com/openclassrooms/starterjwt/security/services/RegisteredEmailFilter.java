@@ -0,0 +1,190 @@
+package com.openclassrooms.starterjwt.security.services;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.openclassrooms.starterjwt.repository.UserRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Counting Bloom filter of the registered emails, so that lookups for unknown emails can be answered
+ * without a database round trip. Each slot is a 4-bit counter, sixteen to a long, which lets deleted
+ * users be removed again; a counter that reaches 15 stays saturated.
+ *
+ * The filter is built from USERS at startup and kept up to date by UserEntityListener and the bulk
+ * registration. Rows written to USERS by other means are only picked up on the next start.
+ */
+@Component
+public class RegisteredEmailFilter {
+  private static final Logger logger = LoggerFactory.getLogger(RegisteredEmailFilter.class);
+
+  private static final int COUNTERS_PER_WORD = 16;
+  private static final long COUNTER_MASK = 0xFL;
+
+  private final UserRepository userRepository;
+  private final double falsePositiveRate;
+  private final boolean enabled;
+  private final int slots;
+  private final int hashes;
+  private final AtomicLongArray counters;
+  private final AtomicLong size = new AtomicLong();
+  private final Counter rejectedCounter;
+
+  private volatile boolean ready;
+
+  public RegisteredEmailFilter(UserRepository userRepository,
+      MeterRegistry meterRegistry,
+      @Value("${oc.app.emailFilterExpectedUsers:100000}") long expectedUsers,
+      @Value("${oc.app.emailFilterFalsePositiveRate:0.01}") double falsePositiveRate) {
+    this.userRepository = userRepository;
+    this.falsePositiveRate = falsePositiveRate;
+    this.enabled = expectedUsers > 0;
+
+    // Optimal sizing for n expected entries at false-positive rate p: m = -n ln p / (ln 2)^2, k = m / n ln 2
+    long optimalSlots = enabled
+        ? (long) Math.ceil(-expectedUsers * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)))
+        : COUNTERS_PER_WORD;
+    this.slots = (int) Math.min(Integer.MAX_VALUE - COUNTERS_PER_WORD, Math.max(COUNTERS_PER_WORD, optimalSlots));
+    this.hashes = enabled ? Math.max(1, (int) Math.round((double) slots / expectedUsers * Math.log(2))) : 1;
+    this.counters = new AtomicLongArray((slots + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD);
+
+    this.rejectedCounter = Counter.builder("email.filter.rejected")
+        .description("User lookups answered by the email filter without a database query")
+        .register(meterRegistry);
+    Gauge.builder("email.filter.size", size, AtomicLong::get)
+        .description("Emails added to the email filter")
+        .register(meterRegistry);
+    Gauge.builder("email.filter.false.positive.rate.configured", this, filter -> filter.falsePositiveRate)
+        .description("Configured false-positive rate of the email filter")
+        .register(meterRegistry);
+    Gauge.builder("email.filter.false.positive.rate.estimated", this, RegisteredEmailFilter::estimatedFalsePositiveRate)
+        .description("False-positive rate of the email filter at its current size")
+        .register(meterRegistry);
+  }
+
+  @PostConstruct
+  public void init() {
+    if (!enabled) {
+      return;
+    }
+
+    List<String> emails = userRepository.findAllEmails();
+    emails.forEach(this::add);
+    ready = true;
+
+    logger.info("Email filter built with {} emails ({} slots, {} hashes, estimated false-positive rate {})",
+        emails.size(), slots, hashes, estimatedFalsePositiveRate());
+  }
+
+  /**
+   * Returns false only when the email is certainly not registered. Always true while the filter is
+   * disabled or not built yet.
+   */
+  public boolean mightContain(String email) {
+    if (!ready) {
+      return true;
+    }
+
+    long hash = hash(email);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < hashes; i++) {
+      if (counter(slot(h1, h2, i)) == 0) {
+        rejectedCounter.increment();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public void add(String email) {
+    if (!enabled || email == null) {
+      return;
+    }
+
+    long hash = hash(email);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < hashes; i++) {
+      update(slot(h1, h2, i), 1);
+    }
+    size.incrementAndGet();
+  }
+
+  public void remove(String email) {
+    if (!enabled || email == null) {
+      return;
+    }
+
+    long hash = hash(email);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < hashes; i++) {
+      update(slot(h1, h2, i), -1);
+    }
+    size.decrementAndGet();
+  }
+
+  public double estimatedFalsePositiveRate() {
+    return Math.pow(1 - Math.exp(-(double) hashes * Math.max(0, size.get()) / slots), hashes);
+  }
+
+  private int slot(int h1, int h2, int i) {
+    // Kirsch-Mitzenmacher: k indexes derived from two halves of one 64-bit hash
+    int combined = h1 + i * h2;
+    return (combined & Integer.MAX_VALUE) % slots;
+  }
+
+  private int counter(int slot) {
+    return (int) ((counters.get(slot / COUNTERS_PER_WORD) >>> shift(slot)) & COUNTER_MASK);
+  }
+
+  private void update(int slot, int delta) {
+    int index = slot / COUNTERS_PER_WORD;
+    int shift = shift(slot);
+    while (true) {
+      long word = counters.get(index);
+      long counter = (word >>> shift) & COUNTER_MASK;
+      // Saturated counters no longer know their true count, so they are never decremented
+      if (counter == COUNTER_MASK || (delta < 0 && counter == 0)) {
+        return;
+      }
+      long updated = (word & ~(COUNTER_MASK << shift)) | ((counter + delta) << shift);
+      if (counters.compareAndSet(index, word, updated)) {
+        return;
+      }
+    }
+  }
+
+  private static int shift(int slot) {
+    return (slot % COUNTERS_PER_WORD) * 4;
+  }
+
+  // 64-bit FNV-1a over the lower-cased email, finished with the MurmurHash3 mixer
+  private static long hash(String email) {
+    String key = email.toLowerCase(Locale.ROOT);
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      hash ^= key.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -1,10 +1,14 @@
 package com.openclassrooms.starterjwt.security.services;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Objects;
+import java.util.Set;
 
 import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -19,6 +23,11 @@ import lombok.Getter;
 public class UserDetailsImpl implements UserDetails {
   private static final long serialVersionUID = 1L;
 
+  private static final Set<GrantedAuthority> USER_AUTHORITIES =
+      Collections.singleton(new SimpleGrantedAuthority("ROLE_USER"));
+  private static final Set<GrantedAuthority> ADMIN_AUTHORITIES = Collections.unmodifiableSet(
+      new HashSet<>(Arrays.asList(new SimpleGrantedAuthority("ROLE_USER"), new SimpleGrantedAuthority("ROLE_ADMIN"))));
+
   private Long id;
 
   private String username;
@@ -32,8 +41,8 @@ public class UserDetailsImpl implements UserDetails {
   @JsonIgnore
   private String password;  
   
-  public Collection<? extends GrantedAuthority> getAuthorities() {        
-      return new HashSet<GrantedAuthority>();
+  public Collection<? extends GrantedAuthority> getAuthorities() {
+    return Boolean.TRUE.equals(admin) ? ADMIN_AUTHORITIES : USER_AUTHORITIES;
   }
 
   @Override
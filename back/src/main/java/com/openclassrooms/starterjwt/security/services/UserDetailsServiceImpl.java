@@ -1,36 +1,121 @@
 package com.openclassrooms.starterjwt.security.services;
 
+import java.time.Duration;
+import java.util.Locale;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.openclassrooms.starterjwt.models.User;
 import com.openclassrooms.starterjwt.repository.UserRepository;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
 @Service
-public class UserDetailsServiceImpl implements UserDetailsService {
+public class UserDetailsServiceImpl implements UserDetailsService, UserDetailsPasswordService {
   UserRepository userRepository;
 
-  UserDetailsServiceImpl(UserRepository userRepository) {
+  private final RegisteredEmailFilter registeredEmailFilter;
+
+  // Principals keyed by user id, evicted by UserEntityListener whenever a USERS row changes
+  private final Cache<Long, UserDetailsImpl> userDetailsCache;
+
+  // Lower-cased email to user id; an entry left behind by an email change no longer matches its principal
+  private final Cache<String, Long> userIdsByEmail;
+
+  UserDetailsServiceImpl(UserRepository userRepository,
+      RegisteredEmailFilter registeredEmailFilter,
+      MeterRegistry meterRegistry,
+      @Value("${oc.app.userDetailsCacheSize:10000}") long cacheSize,
+      @Value("${oc.app.userDetailsCacheTtlSeconds:300}") long cacheTtlSeconds) {
     this.userRepository = userRepository;
+    this.registeredEmailFilter = registeredEmailFilter;
+    this.userDetailsCache = Caffeine.newBuilder()
+        .maximumSize(cacheSize)
+        .expireAfterWrite(Duration.ofSeconds(cacheTtlSeconds))
+        .recordStats()
+        .build();
+    this.userIdsByEmail = Caffeine.newBuilder()
+        .maximumSize(cacheSize)
+        .expireAfterWrite(Duration.ofSeconds(cacheTtlSeconds))
+        .build();
+
+    CaffeineCacheMetrics.monitor(meterRegistry, userDetailsCache, "userDetails");
   }
 
   @Override
-  @Transactional
   public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+    String key = cacheKey(username);
+    Long id = userIdsByEmail.getIfPresent(key);
+    UserDetailsImpl userDetails = id != null ? userDetailsCache.getIfPresent(id) : null;
+    if (userDetails != null && key.equals(cacheKey(userDetails.getUsername()))) {
+      return userDetails;
+    }
+
+    // Unknown emails, typically credential stuffing, are turned away without a query
+    if (!registeredEmailFilter.mightContain(username)) {
+      throw new UsernameNotFoundException("User Not Found with email: " + username);
+    }
+
     User user = userRepository.findByEmail(username)
         .orElseThrow(() -> new UsernameNotFoundException("User Not Found with email: " + username));
 
-    return UserDetailsImpl
+    userDetails = UserDetailsImpl
             .builder()
             .id(user.getId())
             .username(user.getEmail())
             .lastName(user.getLastName())
             .firstName(user.getFirstName())
+            .admin(user.isAdmin())
             .password(user.getPassword())
             .build();
+
+    cache(userDetails);
+    return userDetails;
   }
 
+  /**
+   * Called by the authentication provider after a successful login whose stored hash does not use the
+   * current BCrypt cost, with the password re-encoded at that cost.
+   */
+  @Override
+  public UserDetails updatePassword(UserDetails user, String newPassword) {
+    UserDetailsImpl current = (UserDetailsImpl) user;
+    userRepository.updatePassword(current.getId(), newPassword);
+
+    UserDetailsImpl updated = UserDetailsImpl
+            .builder()
+            .id(current.getId())
+            .username(current.getUsername())
+            .lastName(current.getLastName())
+            .firstName(current.getFirstName())
+            .admin(current.getAdmin())
+            .password(newPassword)
+            .build();
+
+    cache(updated);
+    return updated;
+  }
+
+  public void evict(User user) {
+    if (user.getId() != null) {
+      userDetailsCache.invalidate(user.getId());
+    }
+  }
+
+  private void cache(UserDetailsImpl userDetails) {
+    userDetailsCache.put(userDetails.getId(), userDetails);
+    userIdsByEmail.put(cacheKey(userDetails.getUsername()), userDetails.getId());
+  }
+
+  private static String cacheKey(String email) {
+    return email.toLowerCase(Locale.ROOT);
+  }
 }
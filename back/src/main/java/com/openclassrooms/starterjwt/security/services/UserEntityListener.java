@@ -0,0 +1,60 @@
+package com.openclassrooms.starterjwt.security.services;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.openclassrooms.starterjwt.models.User;
+
+/**
+ * Keeps the in-memory user lookups in line with the USERS table. Collaborators are resolved lazily
+ * because Hibernate instantiates entity listeners while the EntityManagerFactory is still being built.
+ */
+public class UserEntityListener {
+  private final ObjectProvider<UserDetailsServiceImpl> userDetailsService;
+  private final ObjectProvider<RegisteredEmailFilter> registeredEmailFilter;
+
+  public UserEntityListener(ObjectProvider<UserDetailsServiceImpl> userDetailsService,
+      ObjectProvider<RegisteredEmailFilter> registeredEmailFilter) {
+    this.userDetailsService = userDetailsService;
+    this.registeredEmailFilter = registeredEmailFilter;
+  }
+
+  @PostPersist
+  public void onUserCreated(User user) {
+    registeredEmailFilter.ifAvailable(filter -> filter.add(user.getEmail()));
+  }
+
+  // Evicted again once committed, since a concurrent lookup may have cached the old row in between
+  @PostUpdate
+  public void onUserChanged(User user) {
+    userDetailsService.ifAvailable(service -> service.evict(user));
+    afterCommit(() -> userDetailsService.ifAvailable(service -> service.evict(user)));
+  }
+
+  // JPA allows a single callback method per event in a listener class
+  @PostRemove
+  public void onUserRemoved(User user) {
+    onUserChanged(user);
+    String email = user.getEmail();
+    // A rolled back delete must leave the email in the filter, or its owner could no longer log in
+    afterCommit(() -> registeredEmailFilter.ifAvailable(filter -> filter.remove(email)));
+  }
+
+  private static void afterCommit(Runnable update) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      update.run();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        update.run();
+      }
+    });
+  }
+}
@@ -0,0 +1,100 @@
+package com.openclassrooms.starterjwt.services;
+
+import com.openclassrooms.starterjwt.models.RefreshToken;
+import com.openclassrooms.starterjwt.repository.RefreshTokenRepository;
+import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.security.jwt.AuthFailureMonitor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Opaque, single-use refresh tokens. Only their SHA-256 is stored, so a refresh costs one indexed
+ * lookup instead of a BCrypt verification. Presenting a token that was already used means it leaked,
+ * and the whole family rotated from the same login is revoked.
+ */
+@Service
+public class RefreshTokenService {
+    private static final int TOKEN_BYTES = 32;
+
+    private final RefreshTokenRepository refreshTokenRepository;
+    private final UserRepository userRepository;
+    private final AuthFailureMonitor authFailureMonitor;
+    private final long refreshExpirationMs;
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    public RefreshTokenService(RefreshTokenRepository refreshTokenRepository,
+                               UserRepository userRepository,
+                               AuthFailureMonitor authFailureMonitor,
+                               @Value("${oc.app.jwtRefreshExpirationMs:1209600000}") long refreshExpirationMs) {
+        this.refreshTokenRepository = refreshTokenRepository;
+        this.userRepository = userRepository;
+        this.authFailureMonitor = authFailureMonitor;
+        this.refreshExpirationMs = refreshExpirationMs;
+    }
+
+    /**
+     * Creates a refresh token for the user, in a new family when familyId is null.
+     */
+    public String issue(Long userId, String familyId) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        secureRandom.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        this.refreshTokenRepository.save(RefreshToken.builder()
+                .tokenHash(hash(token))
+                .familyId(familyId != null ? familyId : UUID.randomUUID().toString())
+                .user(this.userRepository.getById(userId))
+                .expiresAt(LocalDateTime.now().plusNanos(refreshExpirationMs * 1_000_000))
+                .build());
+        return token;
+    }
+
+    /**
+     * Marks the token as used and returns it with its user, or returns null when it is unknown, expired
+     * or already used.
+     */
+    public RefreshToken consume(String token) {
+        RefreshToken refreshToken = this.refreshTokenRepository.findByTokenHash(hash(token)).orElse(null);
+        if (refreshToken == null) {
+            return null;
+        }
+
+        if (refreshToken.isUsed() || this.refreshTokenRepository.markUsed(refreshToken.getId()) == 0) {
+            this.refreshTokenRepository.deleteFamily(refreshToken.getFamilyId());
+            this.authFailureMonitor.record(AuthFailureMonitor.Reason.REFRESH_REUSE, refreshToken.getUser().getEmail());
+            return null;
+        }
+        if (refreshToken.getExpiresAt().isBefore(LocalDateTime.now())) {
+            return null;
+        }
+        return refreshToken;
+    }
+
+    public void revoke(String token) {
+        this.refreshTokenRepository.findByTokenHash(hash(token))
+                .ifPresent(refreshToken -> this.refreshTokenRepository.deleteFamily(refreshToken.getFamilyId()));
+    }
+
+    @Scheduled(fixedDelayString = "#{${oc.app.jwtRefreshPurgeSeconds:3600} * 1000}")
+    public void purgeExpired() {
+        this.refreshTokenRepository.deleteExpired(LocalDateTime.now());
+    }
+
+    private static String hash(String token) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(sha256.digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
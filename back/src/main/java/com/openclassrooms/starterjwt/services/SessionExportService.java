@@ -0,0 +1,252 @@
+package com.openclassrooms.starterjwt.services;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.openclassrooms.starterjwt.dto.SessionDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes every session with its participants straight from a forward-only result set to the response,
+ * one session at a time, so memory use does not depend on the size of the table.
+ */
+@Service
+public class SessionExportService {
+    // Rows come out grouped by session, one per participant
+    private static final String EXPORT_QUERY =
+            "SELECT s.id, s.name, s.date, s.teacher_id, s.description, s.created_at, s.updated_at, s.capacity, p.user_id"
+                    + " FROM SESSIONS s LEFT JOIN PARTICIPATE p ON p.session_id = s.id"
+                    + " ORDER BY s.id";
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final int fetchSize;
+    private final long timeoutMillis;
+
+    public SessionExportService(JdbcTemplate jdbcTemplate,
+                                ObjectMapper objectMapper,
+                                @Value("${oc.app.sessionExportFetchSize:1000}") int fetchSize,
+                                @Value("${oc.app.sessionExportTimeoutSeconds:600}") long timeoutSeconds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.fetchSize = fetchSize;
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+    }
+
+    // How long the export response may stream before the request times out
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void export(Format format, OutputStream out) throws IOException {
+        SessionWriter writer = format == Format.CSV ? new CsvSessionWriter(out) : new NdjsonSessionWriter(objectMapper, out);
+        SessionRowHandler handler = new SessionRowHandler(writer);
+
+        try {
+            this.jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(
+                        EXPORT_QUERY, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize(connection));
+                return statement;
+            }, handler);
+            handler.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.close();
+    }
+
+    // Connector/J buffers the whole result unless the fetch size is Integer.MIN_VALUE (or useCursorFetch is set)
+    private int fetchSize(Connection connection) throws SQLException {
+        String product = connection.getMetaData().getDatabaseProductName();
+        return "MySQL".equalsIgnoreCase(product) ? Integer.MIN_VALUE : fetchSize;
+    }
+
+    private static class SessionRowHandler implements RowCallbackHandler {
+        private final SessionWriter writer;
+        private SessionDto current;
+
+        SessionRowHandler(SessionWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            long id = rs.getLong(1);
+            if (current == null || current.getId() != id) {
+                finish();
+                current = new SessionDto(id,
+                        rs.getString(2),
+                        toDate(rs.getTimestamp(3)),
+                        nullableLong(rs, 4),
+                        rs.getString(5),
+                        nullableInt(rs, 8),
+                        toLocalDateTime(rs.getTimestamp(6)),
+                        toLocalDateTime(rs.getTimestamp(7)));
+            }
+
+            Long userId = nullableLong(rs, 9);
+            if (userId != null) {
+                current.getUsers().add(userId);
+            }
+        }
+
+        void finish() {
+            if (current == null) {
+                return;
+            }
+            try {
+                writer.write(current);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            current = null;
+        }
+
+        private static Long nullableLong(ResultSet rs, int column) throws SQLException {
+            long value = rs.getLong(column);
+            return rs.wasNull() ? null : value;
+        }
+
+        private static Integer nullableInt(ResultSet rs, int column) throws SQLException {
+            int value = rs.getInt(column);
+            return rs.wasNull() ? null : value;
+        }
+
+        private static Date toDate(Timestamp timestamp) {
+            return timestamp == null ? null : new Date(timestamp.getTime());
+        }
+
+        private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+            return timestamp == null ? null : timestamp.toLocalDateTime();
+        }
+    }
+
+    private interface SessionWriter {
+        void write(SessionDto session) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    private static class NdjsonSessionWriter implements SessionWriter {
+        private final JsonGenerator generator;
+        private final ObjectWriter objectWriter;
+
+        NdjsonSessionWriter(ObjectMapper objectMapper, OutputStream out) throws IOException {
+            this.generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+            this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // Lines are separated by the newline alone, not by the default root separator (a space)
+            this.generator.setRootValueSeparator(null);
+            // Same representation as the REST listing, without flushing the response after every line
+            this.objectWriter = objectMapper.writerFor(SessionDto.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        }
+
+        @Override
+        public void write(SessionDto session) throws IOException {
+            objectWriter.writeValue(generator, session);
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+    }
+
+    private static class CsvSessionWriter implements SessionWriter {
+        private final Writer writer;
+
+        CsvSessionWriter(OutputStream out) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            this.writer.write("id,name,date,teacher_id,description,capacity,users,createdAt,updatedAt\r\n");
+        }
+
+        @Override
+        public void write(SessionDto session) throws IOException {
+            writer.write(String.valueOf(session.getId()));
+            writer.write(',');
+            writeField(session.getName());
+            writer.write(',');
+            writeField(session.getDate() == null ? null : session.getDate().toInstant().toString());
+            writer.write(',');
+            writeField(session.getTeacher_id() == null ? null : session.getTeacher_id().toString());
+            writer.write(',');
+            writeField(session.getDescription());
+            writer.write(',');
+            writeField(session.getCapacity() == null ? null : session.getCapacity().toString());
+            writer.write(',');
+            for (int i = 0; i < session.getUsers().size(); i++) {
+                if (i > 0) {
+                    writer.write(' ');
+                }
+                writer.write(String.valueOf(session.getUsers().get(i)));
+            }
+            writer.write(',');
+            writeField(session.getCreatedAt() == null ? null : session.getCreatedAt().toString());
+            writer.write(',');
+            writeField(session.getUpdatedAt() == null ? null : session.getUpdatedAt().toString());
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.flush();
+        }
+
+        // RFC 4180 quoting, only when the value needs it
+        private void writeField(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+}
@@ -1,15 +1,25 @@
 package com.openclassrooms.starterjwt.services;
 
+import com.openclassrooms.starterjwt.dto.ResourceVersion;
+import com.openclassrooms.starterjwt.dto.SessionDto;
+import com.openclassrooms.starterjwt.dto.UpcomingSessionDto;
 import com.openclassrooms.starterjwt.exception.BadRequestException;
+import com.openclassrooms.starterjwt.exception.ConflictException;
 import com.openclassrooms.starterjwt.exception.NotFoundException;
+import com.openclassrooms.starterjwt.exception.PreconditionFailedException;
 import com.openclassrooms.starterjwt.models.Session;
-import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.payload.response.SessionPage;
 import com.openclassrooms.starterjwt.repository.SessionRepository;
 import com.openclassrooms.starterjwt.repository.UserRepository;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 @Service
 public class SessionService {
@@ -17,62 +27,170 @@ public class SessionService {
 
     private final UserRepository userRepository;
 
-    public SessionService(SessionRepository sessionRepository, UserRepository userRepository) {
+    private final UpcomingSessionsView upcomingSessions;
+
+    public SessionService(SessionRepository sessionRepository,
+                          UserRepository userRepository,
+                          UpcomingSessionsView upcomingSessions) {
         this.sessionRepository = sessionRepository;
         this.userRepository = userRepository;
+        this.upcomingSessions = upcomingSessions;
     }
 
+    @Transactional
     public Session create(Session session) {
-        return this.sessionRepository.save(session);
+        Session created = this.sessionRepository.saveAndFlush(session);
+        if (this.sessionRepository.refreshParticipantCount(created.getId()) == 0) {
+            throw new ConflictException();
+        }
+        this.upcomingSessions.saved(created);
+        return created;
     }
 
     public void delete(Long id) {
         this.sessionRepository.deleteById(id);
+        this.upcomingSessions.deleted(id);
     }
 
     public List<Session> findAll() {
         return this.sessionRepository.findAll();
     }
 
+    /**
+     * Upcoming sessions dated in [from, to), served from memory.
+     */
+    public List<UpcomingSessionDto> findUpcoming(Date from, Date to) {
+        return this.upcomingSessions.find(from, to);
+    }
+
+    /**
+     * Listing read path: builds the DTOs from a projection of the session columns and one query for all
+     * participant ids, instead of loading every session with its users.
+     */
+    public List<SessionDto> findAllSummaries() {
+        return withParticipants(this.sessionRepository.findAllSummaries());
+    }
+
+    /**
+     * One page of the listing in (date, id) order. The cursor is the opaque key returned with the
+     * previous page, so every page costs the same index range scan however deep it is.
+     */
+    public SessionPage findSummaries(Date from, Date to, Long teacherId, String cursor, int size) {
+        Date afterDate = null;
+        Long afterId = null;
+        if (cursor != null) {
+            try {
+                String[] key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII).split(":");
+                afterDate = new Date(Long.parseLong(key[0]));
+                afterId = Long.parseLong(key[1]);
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                throw new BadRequestException();
+            }
+        }
+
+        // One extra row tells whether there is a next page
+        List<SessionDto> sessions = this.sessionRepository.findSummaries(from, to, teacherId, afterDate, afterId, size + 1);
+        String nextCursor = null;
+        if (sessions.size() > size) {
+            sessions = sessions.subList(0, size);
+            SessionDto last = sessions.get(size - 1);
+            nextCursor = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    (last.getDate().getTime() + ":" + last.getId()).getBytes(StandardCharsets.US_ASCII));
+        }
+        return new SessionPage(withParticipants(sessions), nextCursor);
+    }
+
+    private List<SessionDto> withParticipants(List<SessionDto> sessions) {
+        if (sessions.isEmpty()) {
+            return sessions;
+        }
+
+        Map<Long, SessionDto> sessionsById = new HashMap<>(sessions.size() * 2);
+        sessions.forEach(session -> sessionsById.put(session.getId(), session));
+        for (Object[] participant : this.sessionRepository.findParticipantIds(sessionsById.keySet())) {
+            SessionDto session = sessionsById.get(((Number) participant[0]).longValue());
+            if (session != null) {
+                session.getUsers().add(((Number) participant[1]).longValue());
+            }
+        }
+        return sessions;
+    }
+
     public Session getById(Long id) {
         return this.sessionRepository.findById(id).orElse(null);
     }
 
     public Session update(Long id, Session session) {
-        session.setId(id);
-        return this.sessionRepository.save(session);
+        return update(id, session, null);
     }
 
-    public void participate(Long id, Long userId) {
-        Session session = this.sessionRepository.findById(id).orElse(null);
-        User user = this.userRepository.findById(userId).orElse(null);
-        if (session == null || user == null) {
+    /**
+     * Updates the session when its version is still the expected one, or unconditionally when no version
+     * is given. A stale version or an unknown id fails before anything is written, and a capacity below the
+     * participants rolls the whole update back.
+     */
+    @Transactional
+    public Session update(Long id, Session session, Long expectedVersion) {
+        if (expectedVersion != null) {
+            if (this.sessionRepository.bumpVersion(id, expectedVersion) == 0) {
+                throw new PreconditionFailedException();
+            }
+        } else if (this.sessionRepository.bumpVersion(id) == 0) {
             throw new NotFoundException();
         }
 
-        boolean alreadyParticipate = session.getUsers().stream().anyMatch(o -> o.getId().equals(userId));
-        if(alreadyParticipate) {
-            throw new BadRequestException();
+        session.setId(id);
+        Session updated = this.sessionRepository.saveAndFlush(session);
+        if (this.sessionRepository.refreshParticipantCount(id) == 0) {
+            throw new ConflictException();
         }
+        this.upcomingSessions.saved(updated);
+        return updated;
+    }
 
-        session.getUsers().add(user);
+    public ResourceVersion getTableVersion() {
+        return ResourceVersion.ofTable(this.sessionRepository.findTableVersion().get(0));
+    }
 
-        this.sessionRepository.save(session);
+    public ResourceVersion getVersion(Long id) {
+        List<Object[]> rows = this.sessionRepository.findVersion(id);
+        return rows.isEmpty() ? null : ResourceVersion.ofRow(rows.get(0));
     }
 
-    public void noLongerParticipate(Long id, Long userId) {
-        Session session = this.sessionRepository.findById(id).orElse(null);
-        if (session == null) {
-            throw new NotFoundException();
+    /**
+     * Takes a seat with a conditional update of the session counter, then writes the PARTICIPATE row
+     * directly. Any refusal rolls the seat back, and its reason is only looked up on that path. The cached
+     * participants of the session stay locked until the transaction completes.
+     */
+    @Transactional
+    public void participate(Long id, Long userId) {
+        this.sessionRepository.lockCachedParticipants(id);
+        if (this.sessionRepository.reserveSeat(id) == 1 && this.sessionRepository.addParticipant(id, userId) == 1) {
+            this.upcomingSessions.participantsChanged(id);
+            return;
         }
 
-        boolean alreadyParticipate = session.getUsers().stream().anyMatch(o -> o.getId().equals(userId));
-        if(!alreadyParticipate) {
+        if (!this.sessionRepository.existsById(id) || !this.userRepository.existsById(userId)) {
+            throw new NotFoundException();
+        }
+        if (this.sessionRepository.countParticipant(id, userId) > 0) {
             throw new BadRequestException();
         }
+        throw new ConflictException();
+    }
 
-        session.setUsers(session.getUsers().stream().filter(user -> !user.getId().equals(userId)).collect(Collectors.toList()));
+    @Transactional
+    public void noLongerParticipate(Long id, Long userId) {
+        this.sessionRepository.lockCachedParticipants(id);
+        if (this.sessionRepository.removeParticipant(id, userId) == 1) {
+            this.sessionRepository.releaseSeat(id);
+            this.upcomingSessions.participantsChanged(id);
+            return;
+        }
 
-        this.sessionRepository.save(session);
+        if (!this.sessionRepository.existsById(id)) {
+            throw new NotFoundException();
+        }
+        throw new BadRequestException();
     }
 }
@@ -0,0 +1,28 @@
+package com.openclassrooms.starterjwt.services;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+import org.springframework.beans.factory.ObjectProvider;
+
+import com.openclassrooms.starterjwt.models.Teacher;
+
+/**
+ * Drops cached teachers when a TEACHERS row is written through JPA. TeacherService is resolved lazily,
+ * as it depends on the repositories that are built together with this listener.
+ */
+public class TeacherEntityListener {
+    private final ObjectProvider<TeacherService> teacherService;
+
+    public TeacherEntityListener(ObjectProvider<TeacherService> teacherService) {
+        this.teacherService = teacherService;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onTeacherChanged(Teacher teacher) {
+        teacherService.ifAvailable(service -> service.evict(teacher));
+    }
+}
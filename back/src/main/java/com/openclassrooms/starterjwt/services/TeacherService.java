@@ -1,24 +1,95 @@
 package com.openclassrooms.starterjwt.services;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.openclassrooms.starterjwt.dto.ResourceVersion;
 import com.openclassrooms.starterjwt.models.Teacher;
 import com.openclassrooms.starterjwt.repository.TeacherRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.time.Duration;
 import java.util.List;
+import java.util.stream.Collectors;
 
 @Service
 public class TeacherService {
+    private static final String ALL_TEACHERS = "all";
+
     private final TeacherRepository teacherRepository;
 
-    public TeacherService(TeacherRepository teacherRepository) {
+    private final long maxCachedTeachers;
+
+    // Read-through copies of the teacher rows, evicted by TeacherEntityListener when a row changes
+    private final Cache<Long, Teacher> teachersById;
+
+    private final Cache<String, List<Teacher>> allTeachers;
+
+    // The TTL bounds staleness for teachers edited directly in the database, which the entity listener cannot see
+    public TeacherService(TeacherRepository teacherRepository,
+                          @Value("${oc.app.teacherCacheSize:1000}") long maxCachedTeachers,
+                          @Value("${oc.app.teacherCacheTtlSeconds:600}") long cacheTtlSeconds) {
         this.teacherRepository = teacherRepository;
+        this.maxCachedTeachers = maxCachedTeachers;
+        Duration cacheTtl = Duration.ofSeconds(cacheTtlSeconds);
+        this.teachersById = Caffeine.newBuilder()
+                .maximumSize(maxCachedTeachers)
+                .expireAfterWrite(cacheTtl)
+                .recordStats()
+                .build();
+        this.allTeachers = Caffeine.newBuilder()
+                .maximumSize(1)
+                .expireAfterWrite(cacheTtl)
+                .recordStats()
+                .build();
+    }
+
+    @Autowired
+    public void bindMetrics(MeterRegistry meterRegistry) {
+        CaffeineCacheMetrics.monitor(meterRegistry, teachersById, "teachers");
+        CaffeineCacheMetrics.monitor(meterRegistry, allTeachers, "teacherList");
+    }
+
+    @PostConstruct
+    public void warm() {
+        findAll();
     }
 
     public List<Teacher> findAll() {
-        return this.teacherRepository.findAll();
+        List<Teacher> teachers = this.allTeachers.get(ALL_TEACHERS, key -> {
+            List<Teacher> loaded = this.teacherRepository.findAll().stream().map(TeacherService::copy).collect(Collectors.toList());
+            if (loaded.size() <= this.maxCachedTeachers) {
+                loaded.forEach(teacher -> this.teachersById.put(teacher.getId(), teacher));
+            }
+            return loaded;
+        });
+        return teachers.stream().map(TeacherService::copy).collect(Collectors.toList());
+    }
+
+    public ResourceVersion getTableVersion() {
+        return ResourceVersion.ofTable(this.teacherRepository.findTableVersion().get(0));
     }
 
     public Teacher findById(Long id) {
-        return this.teacherRepository.findById(id).orElse(null);
+        Teacher teacher = this.teachersById.get(id,
+                key -> this.teacherRepository.findById(key).map(TeacherService::copy).orElse(null));
+        return teacher != null ? copy(teacher) : null;
+    }
+
+    public void evict(Teacher teacher) {
+        if (teacher.getId() != null) {
+            this.teachersById.invalidate(teacher.getId());
+        }
+        this.allTeachers.invalidateAll();
+    }
+
+    // Callers get their own instance, so nothing they do to it can leak into the cache
+    private static Teacher copy(Teacher teacher) {
+        return new Teacher(teacher.getId(), teacher.getLastName(), teacher.getFirstName(),
+                teacher.getCreatedAt(), teacher.getUpdatedAt());
     }
 }
@@ -0,0 +1,162 @@
+package com.openclassrooms.starterjwt.services;
+
+import com.openclassrooms.starterjwt.dto.UpcomingSessionDto;
+import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.repository.SessionRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sessions from today on, ordered by date, so that "what is on next" is answered from memory.
+ *
+ * The view is loaded from SESSIONS at startup and kept current by SessionService: once a write has
+ * committed, the row it touched is read back, participant_count included. Reading back under the lock
+ * applies the rows in the order they were read, so a callback running late never replaces a newer row
+ * with the values its own write saw. Sessions whose day is over are dropped by the sweep. Reads never
+ * lock. Writes made to SESSIONS by other means (or by other instances) only show up after the next
+ * restart.
+ */
+@Component
+public class UpcomingSessionsView {
+    private static final Logger logger = LoggerFactory.getLogger(UpcomingSessionsView.class);
+
+    private static final Comparator<Key> BY_DATE_THEN_ID = Comparator.<Key>comparingLong(key -> key.time)
+            .thenComparingLong(key -> key.id);
+
+    private final SessionRepository sessionRepository;
+    private final ConcurrentSkipListMap<Key, UpcomingSessionDto> sessionsByDate = new ConcurrentSkipListMap<>(BY_DATE_THEN_ID);
+    private final Map<Long, Key> keysById = new ConcurrentHashMap<>();
+
+    public UpcomingSessionsView(SessionRepository sessionRepository, MeterRegistry meterRegistry) {
+        this.sessionRepository = sessionRepository;
+
+        Gauge.builder("sessions.upcoming", keysById, Map::size)
+                .description("Upcoming sessions held in memory")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public synchronized void rebuild() {
+        sessionsByDate.clear();
+        keysById.clear();
+
+        for (Object[] row : this.sessionRepository.findUpcoming(startOfToday())) {
+            put(toDto(row));
+        }
+        logger.info("Upcoming sessions view built with {} sessions", keysById.size());
+    }
+
+    /**
+     * Sessions dated in [from, to), ordered by date then id. Days before today are never returned.
+     */
+    public List<UpcomingSessionDto> find(Date from, Date to) {
+        long start = Math.max(from.getTime(), startOfToday().getTime());
+        if (start >= to.getTime()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(sessionsByDate.subMap(new Key(start, Long.MIN_VALUE), new Key(to.getTime(), Long.MIN_VALUE)).values());
+    }
+
+    public void saved(Session session) {
+        Long id = session.getId();
+        afterCommit(() -> reload(id));
+    }
+
+    public void deleted(Long id) {
+        afterCommit(() -> {
+            synchronized (this) {
+                remove(id);
+            }
+        });
+    }
+
+    public void participantsChanged(Long id) {
+        afterCommit(() -> reload(id));
+    }
+
+    @Scheduled(fixedDelayString = "#{${oc.app.upcomingSessionsSweepSeconds:60} * 1000}")
+    public synchronized void sweep() {
+        Map<Key, UpcomingSessionDto> past = sessionsByDate.headMap(new Key(startOfToday().getTime(), Long.MIN_VALUE));
+        for (Key key : new ArrayList<>(past.keySet())) {
+            sessionsByDate.remove(key);
+            keysById.remove(key.id);
+        }
+    }
+
+    // Only committed writes reach the view; without a transaction the write is already visible
+    private static void afterCommit(Runnable update) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            update.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                update.run();
+            }
+        });
+    }
+
+    private synchronized void reload(Long id) {
+        List<Object[]> rows = this.sessionRepository.findUpcomingById(id, startOfToday());
+        remove(id);
+        if (!rows.isEmpty()) {
+            put(toDto(rows.get(0)));
+        }
+    }
+
+    // From an (id, name, date, teacher_id, capacity, participant_count) row
+    private static UpcomingSessionDto toDto(Object[] row) {
+        return new UpcomingSessionDto(
+                ((Number) row[0]).longValue(),
+                (String) row[1],
+                new Date(((Date) row[2]).getTime()),
+                row[3] == null ? null : ((Number) row[3]).longValue(),
+                row[4] == null ? null : ((Number) row[4]).intValue(),
+                ((Number) row[5]).intValue());
+    }
+
+    private void put(UpcomingSessionDto session) {
+        Key key = new Key(session.getDate().getTime(), session.getId());
+        sessionsByDate.put(key, session);
+        keysById.put(session.getId(), key);
+    }
+
+    private void remove(Long id) {
+        Key key = keysById.remove(id);
+        if (key != null) {
+            sessionsByDate.remove(key);
+        }
+    }
+
+    private static Date startOfToday() {
+        return Date.from(LocalDate.now().atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    private static final class Key {
+        private final long time;
+        private final long id;
+
+        Key(long time, long id) {
+            this.time = time;
+            this.id = id;
+        }
+    }
+}
@@ -1,15 +1,36 @@
 package com.openclassrooms.starterjwt.services;
 
+import com.openclassrooms.starterjwt.exception.BadRequestException;
 import com.openclassrooms.starterjwt.models.User;
 import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.security.BoundedPasswordEncoder;
+import com.openclassrooms.starterjwt.security.services.RegisteredEmailFilter;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 @Service
 public class UserService {
     private final UserRepository userRepository;
+    private final BoundedPasswordEncoder passwordEncoder;
+    private final RegisteredEmailFilter registeredEmailFilter;
 
-    public UserService(UserRepository userRepository) {
+    public UserService(UserRepository userRepository,
+                       BoundedPasswordEncoder passwordEncoder,
+                       RegisteredEmailFilter registeredEmailFilter) {
         this.userRepository = userRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.registeredEmailFilter = registeredEmailFilter;
     }
 
     public void delete(Long id) {
@@ -19,4 +40,93 @@ public class UserService {
     public User findById(Long id) {
         return this.userRepository.findById(id).orElse(null);
     }
+
+    /**
+     * Loads the given users in a single query, keeping the order of the ids. Unknown (or null) ids are
+     * rejected with a BadRequestException naming them rather than being dropped.
+     */
+    public Set<User> findAllById(Collection<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return new LinkedHashSet<>();
+        }
+
+        Set<Long> distinctIds = new LinkedHashSet<>(ids);
+        Set<Long> unknownIds = new LinkedHashSet<>();
+        if (distinctIds.remove(null)) {
+            unknownIds.add(null);
+        }
+
+        Map<Long, User> usersById = this.userRepository.findAllById(distinctIds).stream()
+                .collect(Collectors.toMap(User::getId, user -> user));
+        Set<User> users = new LinkedHashSet<>();
+        for (Long id : distinctIds) {
+            User user = usersById.get(id);
+            if (user == null) {
+                unknownIds.add(id);
+            } else {
+                users.add(user);
+            }
+        }
+
+        if (!unknownIds.isEmpty()) {
+            throw new BadRequestException("Unknown user ids: " + unknownIds);
+        }
+        return users;
+    }
+
+    /**
+     * Registers the given users, whose password field holds the raw password. Emails already registered
+     * (or repeated in the batch) are skipped and returned, so an import can be replayed safely.
+     */
+    public List<String> registerAll(List<User> users) {
+        Map<String, User> usersByEmail = new LinkedHashMap<>();
+        List<String> alreadyTaken = new ArrayList<>();
+        for (User user : users) {
+            if (usersByEmail.putIfAbsent(user.getEmail().toLowerCase(Locale.ROOT), user) != null) {
+                alreadyTaken.add(user.getEmail());
+            }
+        }
+
+        // One query to skip the hashing cost for emails that are already registered
+        Set<String> existing = this.userRepository.findExistingEmails(usersByEmail.keySet()).stream()
+                .map(email -> email.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toCollection(HashSet::new));
+        List<User> newUsers = new ArrayList<>(usersByEmail.size());
+        usersByEmail.forEach((email, user) -> {
+            if (existing.contains(email)) {
+                alreadyTaken.add(user.getEmail());
+            } else {
+                newUsers.add(user);
+            }
+        });
+
+        List<String> encodedPasswords = this.passwordEncoder.encodeAll(
+                newUsers.stream().map(User::getPassword).collect(Collectors.toList()));
+        for (int i = 0; i < newUsers.size(); i++) {
+            newUsers.get(i).setPassword(encodedPasswords.get(i));
+        }
+
+        if (newUsers.isEmpty()) {
+            return alreadyTaken;
+        }
+
+        // Rows registered concurrently since the lookup are skipped by the insert. Update counts cannot tell
+        // them apart (found rows, or SUCCESS_NO_INFO with rewritten batches), but salted hashes can: a row
+        // is ours only if it holds the hash we inserted.
+        this.userRepository.insertAllSkippingDuplicates(newUsers);
+        Map<String, String> storedPasswords = new HashMap<>();
+        for (Object[] row : this.userRepository.findPasswordsByEmail(
+                newUsers.stream().map(User::getEmail).collect(Collectors.toList()))) {
+            storedPasswords.put(((String) row[0]).toLowerCase(Locale.ROOT), (String) row[1]);
+        }
+        for (User user : newUsers) {
+            if (user.getPassword().equals(storedPasswords.get(user.getEmail().toLowerCase(Locale.ROOT)))) {
+                // JDBC inserts bypass the entity listeners
+                this.registeredEmailFilter.add(user.getEmail());
+            } else {
+                alreadyTaken.add(user.getEmail());
+            }
+        }
+        return alreadyTaken;
+    }
 }
@@ -0,0 +1,22 @@
+ALTER TABLE `USERS` ADD CONSTRAINT `UK_USERS_EMAIL` UNIQUE (`email`);
+
+CREATE TABLE `REVOKED_TOKENS` (
+  `jti` VARCHAR(36) PRIMARY KEY,
+  `expires_at` DATETIME NOT NULL
+);
+
+CREATE TABLE `REFRESH_TOKENS` (
+  `id` INT PRIMARY KEY AUTO_INCREMENT,
+  `token_hash` VARCHAR(44) NOT NULL UNIQUE,
+  `family_id` VARCHAR(36) NOT NULL,
+  `user_id` INT NOT NULL,
+  `used` BOOLEAN NOT NULL DEFAULT false,
+  `expires_at` DATETIME NOT NULL,
+  `created_at` TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+ALTER TABLE `REFRESH_TOKENS` ADD FOREIGN KEY (`user_id`) REFERENCES `USERS` (`id`) ON DELETE CASCADE;
+CREATE INDEX `IDX_REFRESH_TOKENS_FAMILY` ON `REFRESH_TOKENS` (`family_id`);
+
+CREATE INDEX `IDX_SESSIONS_DATE_ID` ON `SESSIONS` (`date`, `id`);
+CREATE INDEX `IDX_SESSIONS_TEACHER_DATE_ID` ON `SESSIONS` (`teacher_id`, `date`, `id`);
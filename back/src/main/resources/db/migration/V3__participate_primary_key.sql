@@ -0,0 +1,17 @@
+-- Rebuilt rather than altered so that duplicate and incomplete rows are dropped on the way
+CREATE TABLE `PARTICIPATE_NEW` (
+  `user_id` INT NOT NULL,
+  `session_id` INT NOT NULL,
+  PRIMARY KEY (`session_id`, `user_id`)
+);
+
+INSERT INTO `PARTICIPATE_NEW` (`session_id`, `user_id`)
+SELECT DISTINCT `session_id`, `user_id` FROM `PARTICIPATE`
+WHERE `session_id` IS NOT NULL AND `user_id` IS NOT NULL;
+
+DROP TABLE `PARTICIPATE`;
+ALTER TABLE `PARTICIPATE_NEW` RENAME TO `PARTICIPATE`;
+
+CREATE INDEX `IDX_PARTICIPATE_USER_SESSION` ON `PARTICIPATE` (`user_id`, `session_id`);
+ALTER TABLE `PARTICIPATE` ADD FOREIGN KEY (`user_id`) REFERENCES `USERS` (`id`);
+ALTER TABLE `PARTICIPATE` ADD FOREIGN KEY (`session_id`) REFERENCES `SESSIONS` (`id`);
@@ -0,0 +1,5 @@
+-- A null capacity means the session is not limited
+ALTER TABLE `SESSIONS` ADD COLUMN `capacity` INT NULL;
+ALTER TABLE `SESSIONS` ADD COLUMN `participant_count` INT NOT NULL DEFAULT 0;
+
+UPDATE `SESSIONS` SET `participant_count` = (SELECT COUNT(*) FROM `PARTICIPATE` p WHERE p.`session_id` = `SESSIONS`.`id`);
@@ -0,0 +1,2 @@
+-- Bumped by every write to a session or its participants, used for ETags and If-Match
+ALTER TABLE `SESSIONS` ADD COLUMN `version` BIGINT NOT NULL DEFAULT 0;
@@ -1,24 +1,46 @@
 package com.openclassrooms.starterjwt;
 
+import com.jayway.jsonpath.JsonPath;
 import com.openclassrooms.starterjwt.models.User;
 import com.openclassrooms.starterjwt.payload.request.SignupRequest;
+import com.openclassrooms.starterjwt.repository.RevokedTokenRepository;
 import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.security.jwt.AuthFailureMonitor;
+import com.openclassrooms.starterjwt.security.jwt.JwtUtils;
+import com.openclassrooms.starterjwt.security.jwt.TokenDenylist;
+import com.openclassrooms.starterjwt.security.services.UserDetailsServiceImpl;
 import com.openclassrooms.starterjwt.services.UserService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.test.context.TestSecurityContextHolder;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest
 @AutoConfigureMockMvc
@@ -34,6 +56,27 @@ public class AuthIntegrationTests extends BaseIntegrationTests {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private UserDetailsServiceImpl userDetailsService;
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    @Autowired
+    private RevokedTokenRepository revokedTokenRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private AuthFailureMonitor authFailureMonitor;
+
     private List<User> usersCreatedDuringTest = new ArrayList<>();
 
     @Test
@@ -43,6 +86,72 @@ public class AuthIntegrationTests extends BaseIntegrationTests {
                 .andExpect(MockMvcResultMatchers.jsonPath("$.token").exists());
     }
 
+    @Test
+    public void testLoginRunsASingleQuery() throws Exception {
+        String email = environment.getProperty("TEST_ADMIN_USER_EMAIL");
+        String password = environment.getProperty("TEST_ADMIN_USER_PASSWORD");
+
+        // A first login settles any pending rehash, then the cached principal is dropped to measure a cold login
+        performLogin().andExpect(MockMvcResultMatchers.status().isOk());
+        userRepository.findByEmail(email).ifPresent(userDetailsService::evict);
+
+        Statistics statistics = resetStatistics();
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/login")
+                        .contentType("application/json")
+                        .content("{\"email\":\"" + email + "\",\"password\":\"" + password + "\"}"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.admin").value(true));
+
+        // The user lookup and the refresh token insert
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testLoginWithUnknownEmailSkipsTheDatabase() throws Exception {
+        Statistics statistics = resetStatistics();
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/login")
+                        .contentType("application/json")
+                        .content("{\"email\":\"unknown-user@example.com\",\"password\":\"us!er-password456\"}"))
+                .andExpect(MockMvcResultMatchers.status().isUnauthorized());
+
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testRepeatedFailedLoginsAreThrottled() throws Exception {
+        // A dedicated email keeps the other tests' admin logins out of the throttle
+        String loginPayload = "{\"email\":\"throttled-user@example.com\",\"password\":\"wrong-password\"}";
+
+        for (int i = 0; i < 5; i++) {
+            mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/login")
+                            .with(request -> { request.setRemoteAddr("10.1.1.1"); return request; })
+                            .contentType("application/json")
+                            .content(loginPayload))
+                    .andExpect(MockMvcResultMatchers.status().isUnauthorized());
+        }
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/login")
+                        .with(request -> { request.setRemoteAddr("10.1.1.1"); return request; })
+                        .contentType("application/json")
+                        .content(loginPayload))
+                .andExpect(MockMvcResultMatchers.status().isTooManyRequests())
+                .andExpect(MockMvcResultMatchers.header().exists("Retry-After"));
+    }
+
+    @Test
+    public void testLoginRehashesPasswordAtCalibratedCost() throws Exception {
+        String email = environment.getProperty("TEST_ADMIN_USER_EMAIL");
+
+        performLogin().andExpect(MockMvcResultMatchers.status().isOk());
+
+        User user = userRepository.findByEmail(email).orElse(null);
+        assertNotNull(user);
+        assertFalse(passwordEncoder.upgradeEncoding(user.getPassword()),
+                "The stored hash should use the calibrated cost after a successful login");
+    }
+
     @Test
     public void testRegistration() throws Exception {
         String registrationPayload = "{\"email\":\"new-user989@example.com\",\"firstName\":\"John\",\"lastName\":\"Doe\",\"password\":\"us!er-password456\"}";
@@ -60,6 +169,228 @@ public class AuthIntegrationTests extends BaseIntegrationTests {
         }
     }
 
+    @Test
+    public void testRegistrationWithTakenEmail() throws Exception {
+        String registrationPayload = "{\"email\":\"" + environment.getProperty("TEST_ADMIN_USER_EMAIL") + "\",\"firstName\":\"John\",\"lastName\":\"Doe\",\"password\":\"us!er-password456\"}";
+        long hashesBefore = meterRegistry.get("password.hash.duration").timer().count();
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/register")
+                        .contentType("application/json")
+                        .content(registrationPayload))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("Error: Email is already taken!"));
+
+        assertEquals(hashesBefore, meterRegistry.get("password.hash.duration").timer().count());
+    }
+
+    @Test
+    public void testBulkRegistration() throws Exception {
+        String authToken = JsonPath.read(performLogin().andReturn().getResponse().getContentAsString(), "$.token");
+        String bulkPayload = "{\"users\":["
+                + "{\"email\":\"bulk-user1@example.com\",\"firstName\":\"John\",\"lastName\":\"Doe\",\"password\":\"us!er-password456\"},"
+                + "{\"email\":\"bulk-user2@example.com\",\"firstName\":\"Jane\",\"lastName\":\"Doe\",\"password\":\"us!er-password456\"},"
+                + "{\"email\":\"BULK-USER1@example.com\",\"firstName\":\"John\",\"lastName\":\"Doe\",\"password\":\"us!er-password456\"},"
+                + "{\"email\":\"" + environment.getProperty("TEST_ADMIN_USER_EMAIL") + "\",\"firstName\":\"John\",\"lastName\":\"Doe\",\"password\":\"us!er-password456\"}"
+                + "]}";
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/user/bulk")
+                        .header("Authorization", "Bearer " + authToken)
+                        .contentType("application/json")
+                        .content(bulkPayload))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.registered").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.alreadyTaken.length()").value(2));
+
+        User firstUser = userRepository.findByEmail("bulk-user1@example.com").orElse(null);
+        User secondUser = userRepository.findByEmail("bulk-user2@example.com").orElse(null);
+        assertNotNull(firstUser);
+        assertNotNull(secondUser);
+        usersCreatedDuringTest.add(firstUser);
+        usersCreatedDuringTest.add(secondUser);
+        assertTrue(passwordEncoder.matches("us!er-password456", firstUser.getPassword()));
+        assertNotNull(firstUser.getCreatedAt());
+        assertNotNull(firstUser.getUpdatedAt());
+    }
+
+    @Test
+    public void testRefreshRotatesTokenWithoutHashing() throws Exception {
+        String refreshToken = JsonPath.read(performLogin().andReturn().getResponse().getContentAsString(), "$.refreshToken");
+        long hashesBefore = meterRegistry.get("password.hash.duration").timer().count();
+
+        String refreshed = mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/refresh")
+                        .contentType("application/json")
+                        .content("{\"refreshToken\":\"" + refreshToken + "\"}"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.token").exists())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.admin").value(true))
+                .andReturn().getResponse().getContentAsString();
+        String rotatedToken = JsonPath.read(refreshed, "$.refreshToken");
+
+        assertNotEquals(refreshToken, rotatedToken);
+        assertEquals(hashesBefore, meterRegistry.get("password.hash.duration").timer().count());
+
+        // Replaying the used token revokes the whole family, including the token rotated from it
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/refresh")
+                        .contentType("application/json")
+                        .content("{\"refreshToken\":\"" + refreshToken + "\"}"))
+                .andExpect(MockMvcResultMatchers.status().isUnauthorized());
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/refresh")
+                        .contentType("application/json")
+                        .content("{\"refreshToken\":\"" + rotatedToken + "\"}"))
+                .andExpect(MockMvcResultMatchers.status().isUnauthorized());
+    }
+
+    @Test
+    public void testLogoutRevokesToken() throws Exception {
+        String authToken = JsonPath.read(performLogin().andReturn().getResponse().getContentAsString(), "$.token");
+        // Only the bearer token may authenticate the requests below
+        TestSecurityContextHolder.clearContext();
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/user/1")
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/logout")
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("User logged out successfully!"));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/user/1")
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(MockMvcResultMatchers.status().isUnauthorized())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.status").value(401))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("Unauthorized"));
+
+        // A freshly started denylist reloads the revocation from the database
+        String jti = jwtUtils.verifyJwtToken(authToken).getId();
+        TokenDenylist reloaded = new TokenDenylist(revokedTokenRepository, new SimpleMeterRegistry(), 60);
+        reloaded.init();
+        assertTrue(reloaded.isRevoked(jti));
+    }
+
+    @Test
+    public void testConcurrentRevocationsOfTheSameToken() throws Exception {
+        String jti = UUID.randomUUID().toString();
+        Date expiration = new Date(System.currentTimeMillis() + 60_000);
+        int revocations = 8;
+        List<TokenDenylist> denylists = new ArrayList<>();
+        for (int i = 0; i < revocations; i++) {
+            denylists.add(new TokenDenylist(revokedTokenRepository, new SimpleMeterRegistry(), 60));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(revocations);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (TokenDenylist denylist : denylists) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    denylist.revoke(jti, expiration);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+
+            assertTrue(denylists.stream().allMatch(denylist -> denylist.isRevoked(jti)));
+            assertTrue(revokedTokenRepository.existsById(jti));
+        } finally {
+            executor.shutdownNow();
+            revokedTokenRepository.deleteById(jti);
+        }
+    }
+
+    @Test
+    public void testDeletedUserIsEvictedFromUserDetailsCache() throws Exception {
+        String registrationPayload = "{\"email\":\"cached-user@example.com\",\"firstName\":\"John\",\"lastName\":\"Doe\",\"password\":\"us!er-password456\"}";
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/register")
+                        .contentType("application/json")
+                        .content(registrationPayload))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        // Load the user twice so that the second lookup is served from the cache
+        UserDetails cachedUser = userDetailsService.loadUserByUsername("cached-user@example.com");
+        assertSame(cachedUser, userDetailsService.loadUserByUsername("cached-user@example.com"));
+
+        User createdUser = userRepository.findByEmail("cached-user@example.com").orElse(null);
+        assertNotNull(createdUser);
+        userService.delete(createdUser.getId());
+
+        assertThrows(UsernameNotFoundException.class,
+                () -> userDetailsService.loadUserByUsername("cached-user@example.com"));
+    }
+
+    @Test
+    public void testTokenOfDeletedUserIsCountedAsUnknownUser() throws Exception {
+        String registrationPayload = "{\"email\":\"departed-user@example.com\",\"firstName\":\"John\",\"lastName\":\"Doe\",\"password\":\"us!er-password456\"}";
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/register")
+                        .contentType("application/json")
+                        .content(registrationPayload))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        String login = mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/login")
+                        .contentType("application/json")
+                        .content(registrationPayload))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String authToken = JsonPath.read(login, "$.token");
+        Number userId = JsonPath.read(login, "$.id");
+        userService.delete(userId.longValue());
+        TestSecurityContextHolder.clearContext();
+        long unknownUsers = authFailureMonitor.getCount(AuthFailureMonitor.Reason.UNKNOWN_USER);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/user/1")
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(MockMvcResultMatchers.status().isUnauthorized());
+
+        assertEquals(unknownUsers + 1, authFailureMonitor.getCount(AuthFailureMonitor.Reason.UNKNOWN_USER));
+    }
+
+    @Test
+    public void testPrincipalCachedDuringDeleteIsEvictedOnCommit() throws Exception {
+        String registrationPayload = "{\"email\":\"racing-user@example.com\",\"firstName\":\"John\",\"lastName\":\"Doe\",\"password\":\"us!er-password456\"}";
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/register")
+                        .contentType("application/json")
+                        .content(registrationPayload))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        User createdUser = userRepository.findByEmail("racing-user@example.com").orElse(null);
+        assertNotNull(createdUser);
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            userRepository.deleteById(createdUser.getId());
+            userRepository.flush();
+
+            // Another request still sees the committed row and caches it after the flush-time eviction
+            assertNotNull(assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> userDetailsService.loadUserByUsername("racing-user@example.com")));
+        });
+
+        assertThrows(UsernameNotFoundException.class,
+                () -> userDetailsService.loadUserByUsername("racing-user@example.com"));
+    }
+
+    @Test
+    public void testChangedEmailNoLongerFindsTheCachedPrincipal() throws Exception {
+        String registrationPayload = "{\"email\":\"renamed-user@example.com\",\"firstName\":\"John\",\"lastName\":\"Doe\",\"password\":\"us!er-password456\"}";
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/register")
+                        .contentType("application/json")
+                        .content(registrationPayload))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        userDetailsService.loadUserByUsername("renamed-user@example.com");
+
+        User user = userRepository.findByEmail("renamed-user@example.com").orElse(null);
+        assertNotNull(user);
+        user.setEmail("renamed-user-2@example.com");
+        usersCreatedDuringTest.add(userRepository.save(user));
+
+        assertThrows(UsernameNotFoundException.class,
+                () -> userDetailsService.loadUserByUsername("renamed-user@example.com"));
+    }
+
     @Test
     public void testSignupRequestEqualsAndHashCode() {
         SignupRequest request1 = new SignupRequest();
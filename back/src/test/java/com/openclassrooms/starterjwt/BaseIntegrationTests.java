@@ -1,5 +1,7 @@
 package com.openclassrooms.starterjwt;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -13,6 +15,8 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import javax.persistence.EntityManagerFactory;
+
 @SpringBootTest
 @AutoConfigureMockMvc
 @TestPropertySource(locations = "classpath:test.properties")
@@ -27,6 +31,9 @@ public abstract class BaseIntegrationTests {
     @Autowired
     protected Environment environment;
 
+    @Autowired
+    protected EntityManagerFactory entityManagerFactory;
+
     public ResultActions performLogin() throws Exception {
         String email = environment.getProperty("TEST_ADMIN_USER_EMAIL");
         String password = environment.getProperty("TEST_ADMIN_USER_PASSWORD");
@@ -44,4 +51,12 @@ public abstract class BaseIntegrationTests {
                 .contentType("application/json")
                 .content(loginPayload));
     }
+
+    // Enables and resets Hibernate statistics so that a test can count the statements it triggers
+    public Statistics resetStatistics() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        return statistics;
+    }
 }
@@ -0,0 +1,111 @@
+package com.openclassrooms.starterjwt;
+
+import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.security.services.RegisteredEmailFilter;
+import com.openclassrooms.starterjwt.security.services.UserDetailsServiceImpl;
+import com.openclassrooms.starterjwt.security.services.UserEntityListener;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EmailFilterUnitTests {
+
+    private RegisteredEmailFilter newFilter(SimpleMeterRegistry meterRegistry, List<String> emails, long expectedUsers) {
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findAllEmails()).thenReturn(emails);
+
+        RegisteredEmailFilter filter = new RegisteredEmailFilter(userRepository, meterRegistry, expectedUsers, 0.01);
+        filter.init();
+        return filter;
+    }
+
+    @Test
+    public void testRegisteredEmailsAreAlwaysFound() {
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            emails.add("user" + i + "@example.com");
+        }
+        RegisteredEmailFilter filter = newFilter(new SimpleMeterRegistry(), emails, 10_000);
+
+        for (String email : emails) {
+            assertTrue(filter.mightContain(email));
+        }
+        assertTrue(filter.mightContain("USER42@Example.com"), "Lookups are case-insensitive like the email column");
+    }
+
+    @Test
+    public void testFalsePositiveRateStaysNearConfiguredRate() {
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            emails.add("user" + i + "@example.com");
+        }
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RegisteredEmailFilter filter = newFilter(meterRegistry, emails, 10_000);
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("unknown" + i + "@example.com")) {
+                falsePositives++;
+            }
+        }
+
+        assertTrue(falsePositives < 2_000, "Expected about 1% false positives, got " + falsePositives);
+        assertEquals(100_000 - falsePositives, meterRegistry.get("email.filter.rejected").counter().count());
+        assertEquals(0.01, meterRegistry.get("email.filter.false.positive.rate.estimated").gauge().value(), 0.005);
+    }
+
+    @Test
+    public void testRemovedEmailsAreNoLongerFound() {
+        List<String> emails = new ArrayList<>();
+        emails.add("kept@example.com");
+        RegisteredEmailFilter filter = newFilter(new SimpleMeterRegistry(), emails, 1_000);
+
+        filter.add("removed@example.com");
+        assertTrue(filter.mightContain("removed@example.com"));
+
+        filter.remove("removed@example.com");
+        assertFalse(filter.mightContain("removed@example.com"));
+        assertTrue(filter.mightContain("kept@example.com"));
+    }
+
+    @Test
+    public void testEmailOfDeletedUserIsRemovedOnlyOnCommit() {
+        List<String> emails = new ArrayList<>();
+        emails.add("deleted@example.com");
+        RegisteredEmailFilter filter = newFilter(new SimpleMeterRegistry(), emails, 1_000);
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        beanFactory.addBean("registeredEmailFilter", filter);
+        UserEntityListener listener = new UserEntityListener(
+                beanFactory.getBeanProvider(UserDetailsServiceImpl.class),
+                beanFactory.getBeanProvider(RegisteredEmailFilter.class));
+        User user = new User("deleted@example.com", "Deleted", "User", "password", false);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            listener.onUserRemoved(user);
+            assertTrue(filter.mightContain("deleted@example.com"), "The delete may still roll back");
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertFalse(filter.mightContain("deleted@example.com"));
+    }
+
+    @Test
+    public void testDisabledFilterLetsEveryLookupThrough() {
+        RegisteredEmailFilter filter = newFilter(new SimpleMeterRegistry(), new ArrayList<>(), 0);
+
+        assertTrue(filter.mightContain("anyone@example.com"));
+    }
+}
@@ -0,0 +1,133 @@
+package com.openclassrooms.starterjwt;
+
+import com.jayway.jsonpath.JsonPath;
+import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.models.User;
+import com.openclassrooms.starterjwt.repository.EntityCacheConfig;
+import com.openclassrooms.starterjwt.repository.SessionRepository;
+import com.openclassrooms.starterjwt.repository.TeacherRepository;
+import com.openclassrooms.starterjwt.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@TestPropertySource(properties = "oc.app.entityCacheEnabled=true")
+public class EntityCacheIntegrationTests extends BaseIntegrationTests {
+
+    @Autowired
+    private SessionRepository sessionRepository;
+
+    @Autowired
+    private TeacherRepository teacherRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String authToken;
+
+    private Long sessionId;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        authToken = JsonPath.read(performLogin().andReturn().getResponse().getContentAsString(), "$.token");
+
+        Session session = sessionRepository.save(Session.builder()
+                .name("Cached session")
+                .date(new Date())
+                .description("Session read through the second-level cache.")
+                .teacher(teacherRepository.findById(1L).orElseThrow())
+                .users(new HashSet<>())
+                .build());
+        sessionId = session.getId();
+
+        // Warm the regions
+        sessionRepository.findById(sessionId);
+        userRepository.findById(2L);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (sessionRepository.existsById(sessionId)) {
+            sessionRepository.deleteById(sessionId);
+        }
+    }
+
+    @Test
+    public void testSessionIsReadFromTheCache() {
+        Statistics statistics = resetStatistics();
+
+        Session session = sessionRepository.findById(sessionId).orElseThrow();
+
+        assertEquals("Cached session", session.getName());
+        assertEquals(1L, session.getTeacher().getId());
+        assertEquals(0, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getEntityStatistics(Session.class.getName()).getCacheHitCount());
+        assertTrue(meterRegistry.get("cache.gets")
+                .tag("cache", EntityCacheConfig.SESSION_REGION)
+                .tag("result", "hit")
+                .functionCounter().count() > 0);
+    }
+
+    @Test
+    public void testParticipationRefreshesOnlyTheCachedParticipants() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/session/{id}/participate/{userId}", sessionId, 2)
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk());
+
+        Statistics statistics = resetStatistics();
+        Session session = sessionRepository.findById(sessionId).orElseThrow();
+        userRepository.findById(2L);
+
+        assertTrue(session.getUsers().stream().anyMatch(user -> user.getId() == 2L));
+        // The join table write dropped the participants, but neither the session nor the users
+        assertEquals(1, statistics.getEntityStatistics(Session.class.getName()).getCacheHitCount());
+        assertEquals(0, statistics.getEntityStatistics(User.class.getName()).getCacheMissCount());
+
+        mockMvc.perform(MockMvcRequestBuilders.delete("/api/session/{id}/participate/{userId}", sessionId, 2)
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk());
+
+        assertTrue(sessionRepository.findById(sessionId).orElseThrow().getUsers().isEmpty());
+    }
+
+    @Test
+    public void testSeatCountersLeaveTheCachedSessionCurrent() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/session/{id}/participate/{userId}", sessionId, 2)
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk());
+        mockMvc.perform(MockMvcRequestBuilders.delete("/api/session/{id}/participate/{userId}", sessionId, 2)
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk());
+
+        Timestamp stored = jdbcTemplate.queryForObject("select updated_at from SESSIONS where id = ?", Timestamp.class, sessionId);
+        assertEquals(stored.toLocalDateTime(), sessionRepository.findById(sessionId).orElseThrow().getUpdatedAt());
+    }
+
+    @Test
+    public void testDeletedSessionIsEvicted() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.delete("/api/session/{id}", sessionId)
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk());
+
+        assertFalse(sessionRepository.findById(sessionId).isPresent());
+    }
+}
@@ -0,0 +1,259 @@
+package com.openclassrooms.starterjwt;
+
+import com.openclassrooms.starterjwt.security.jwt.AuthFailureMonitor;
+import com.openclassrooms.starterjwt.security.jwt.AuthFailureMonitor.Reason;
+import com.openclassrooms.starterjwt.security.jwt.JwtUtils;
+import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JwtBenchmarkTests {
+    private static final Logger logger = LoggerFactory.getLogger(JwtBenchmarkTests.class);
+
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int MEASURED_ITERATIONS = 100_000;
+
+    private final AuthFailureMonitor authFailureMonitor = new AuthFailureMonitor(new SimpleMeterRegistry());
+
+    private JwtUtils buildJwtUtils(int cacheSize) {
+        return buildJwtUtils(cacheSize, "", "default");
+    }
+
+    private JwtUtils buildJwtUtils(int cacheSize, String keys, String activeKeyId) {
+        JwtUtils jwtUtils = new JwtUtils();
+        ReflectionTestUtils.setField(jwtUtils, "authFailureMonitor", authFailureMonitor);
+        ReflectionTestUtils.setField(jwtUtils, "jwtSecret", "openclassrooms");
+        ReflectionTestUtils.setField(jwtUtils, "jwtKeys", keys);
+        ReflectionTestUtils.setField(jwtUtils, "jwtActiveKeyId", activeKeyId);
+        ReflectionTestUtils.setField(jwtUtils, "jwtExpirationMs", 86400000);
+        ReflectionTestUtils.setField(jwtUtils, "jwtCacheSize", cacheSize);
+        jwtUtils.init();
+        return jwtUtils;
+    }
+
+    private String generateToken(JwtUtils jwtUtils) {
+        UserDetailsImpl userDetails = UserDetailsImpl.builder()
+                .id(1L)
+                .username("yoga@studio.com")
+                .firstName("Admin")
+                .lastName("Admin")
+                .admin(true)
+                .build();
+
+        return jwtUtils.generateJwtToken(new UsernamePasswordAuthenticationToken(userDetails, null));
+    }
+
+    @Test
+    public void testVerifyJwtTokenReturnsClaims() {
+        JwtUtils jwtUtils = buildJwtUtils(100);
+        String token = generateToken(jwtUtils);
+
+        Claims claims = jwtUtils.verifyJwtToken(token);
+
+        assertNotNull(claims);
+        assertEquals("yoga@studio.com", claims.getSubject());
+        assertSame(claims, jwtUtils.verifyJwtToken(token), "A verified token should be served from the cache");
+    }
+
+    @Test
+    public void testUserDetailsFromClaims() {
+        JwtUtils jwtUtils = buildJwtUtils(100);
+        String token = generateToken(jwtUtils);
+
+        UserDetailsImpl userDetails = jwtUtils.getUserDetailsFromClaims(jwtUtils.verifyJwtToken(token));
+
+        assertNotNull(userDetails);
+        assertEquals(1L, userDetails.getId());
+        assertEquals("yoga@studio.com", userDetails.getUsername());
+        assertEquals("Admin", userDetails.getFirstName());
+        assertEquals("Admin", userDetails.getLastName());
+        assertTrue(userDetails.getAdmin());
+    }
+
+    @Test
+    public void testVerifyJwtTokenRejectsTamperedToken() {
+        JwtUtils jwtUtils = buildJwtUtils(100);
+        String token = generateToken(jwtUtils);
+
+        // Verify once so that the genuine token sits in the cache
+        assertNotNull(jwtUtils.verifyJwtToken(token));
+
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA");
+
+        assertNull(jwtUtils.verifyJwtToken(tampered));
+        assertNull(jwtUtils.verifyJwtToken(""));
+        assertNull(jwtUtils.verifyJwtToken("not-a-token"));
+
+        assertEquals(1, authFailureMonitor.getCount(Reason.BAD_SIGNATURE));
+        assertEquals(1, authFailureMonitor.getCount(Reason.EMPTY));
+        assertEquals(1, authFailureMonitor.getCount(Reason.MALFORMED));
+    }
+
+    @Test
+    public void testVerifyJwtTokenRejectsExpiredToken() {
+        JwtUtils jwtUtils = buildJwtUtils(100);
+        ReflectionTestUtils.setField(jwtUtils, "jwtExpirationMs", -1000);
+        String token = generateToken(jwtUtils);
+
+        assertNull(jwtUtils.verifyJwtToken(token));
+        assertEquals(1, authFailureMonitor.getCount(Reason.EXPIRED));
+    }
+
+    @Test
+    public void testVerifyJwtTokenRejectsNonObjectSegments() {
+        JwtUtils jwtUtils = buildJwtUtils(100);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String token = generateToken(jwtUtils);
+        String rest = token.substring(token.indexOf('.'));
+
+        assertNull(jwtUtils.verifyJwtToken(encoder.encodeToString("null".getBytes()) + rest));
+        assertNull(jwtUtils.verifyJwtToken(encoder.encodeToString("[1]".getBytes()) + rest));
+        assertNull(jwtUtils.verifyJwtToken(encoder.encodeToString("\"HS512\"".getBytes()) + rest));
+        assertEquals(3, authFailureMonitor.getCount(Reason.MALFORMED));
+
+        // Claims are only read once the signature matches, so sign the odd payloads with the real key
+        String nullClaims = Jwts.builder().setPayload("null").signWith(SignatureAlgorithm.HS512, "openclassrooms").compact();
+        String stringExpiry = Jwts.builder().setPayload("{\"sub\":\"yoga@studio.com\",\"exp\":\"soon\"}")
+                .signWith(SignatureAlgorithm.HS512, "openclassrooms").compact();
+        assertNull(jwtUtils.verifyJwtToken(nullClaims));
+        assertNull(jwtUtils.verifyJwtToken(stringExpiry));
+        assertEquals(5, authFailureMonitor.getCount(Reason.MALFORMED));
+        assertNotNull(jwtUtils.verifyJwtToken(token));
+    }
+
+    @Test
+    public void testVerifyJwtTokenRejectsTokenNotYetValid() {
+        JwtUtils jwtUtils = buildJwtUtils(100);
+        long now = System.currentTimeMillis();
+        String premature = Jwts.builder()
+                .setSubject("yoga@studio.com")
+                .setNotBefore(new Date(now + 60_000))
+                .setExpiration(new Date(now + 120_000))
+                .signWith(SignatureAlgorithm.HS512, "openclassrooms")
+                .compact();
+        String current = Jwts.builder()
+                .setSubject("yoga@studio.com")
+                .setNotBefore(new Date(now - 60_000))
+                .setExpiration(new Date(now + 120_000))
+                .signWith(SignatureAlgorithm.HS512, "openclassrooms")
+                .compact();
+
+        assertNull(jwtUtils.verifyJwtToken(premature));
+        assertNull(jwtUtils.verifyJwtToken(premature), "A rejected token must not reach the cache");
+        assertEquals(2, authFailureMonitor.getCount(Reason.PREMATURE));
+        assertEquals("yoga@studio.com", jwtUtils.getUserNameFromJwtToken(current));
+    }
+
+    @Test
+    public void testKeyRotationKeepsIssuedTokensValid() {
+        String keys = "hs-2024=HS512:" + Base64.getEncoder().encodeToString("a-newer-and-longer-signing-secret".getBytes());
+
+        // Kid-less tokens issued before the key ring existed still verify with the default secret
+        String legacyToken = Jwts.builder()
+                .setSubject("yoga@studio.com")
+                .setExpiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(SignatureAlgorithm.HS512, "openclassrooms")
+                .compact();
+        JwtUtils beforeRotation = buildJwtUtils(0, keys, "default");
+        String oldToken = generateToken(beforeRotation);
+        JwtUtils afterRotation = buildJwtUtils(0, keys, "hs-2024");
+        String newToken = generateToken(afterRotation);
+
+        assertEquals("hs-2024", Jwts.parser().setSigningKey(Base64.getEncoder().encodeToString("a-newer-and-longer-signing-secret".getBytes()))
+                .parseClaimsJws(newToken).getHeader().getKeyId());
+        assertEquals("yoga@studio.com", afterRotation.getUserNameFromJwtToken(legacyToken));
+        assertEquals("yoga@studio.com", afterRotation.getUserNameFromJwtToken(oldToken));
+        assertEquals("yoga@studio.com", afterRotation.getUserNameFromJwtToken(newToken));
+
+        // Once the new key is dropped, its tokens are rejected as signed by an unknown key
+        assertNull(buildJwtUtils(0, "", "default").verifyJwtToken(newToken));
+        assertEquals(1, authFailureMonitor.getCount(Reason.UNSUPPORTED));
+    }
+
+    @Test
+    public void testVerificationThroughputHs512AndRs256() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        String privateKey = Base64.getEncoder().encodeToString(keyPair.getPrivate().getEncoded());
+        String publicKey = Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded());
+
+        JwtUtils hmacNode = buildJwtUtils(0);
+        JwtUtils rsaSigner = buildJwtUtils(0, "rs-1=RS256:" + privateKey, "rs-1");
+        // A verification-only node holds nothing but the public key
+        JwtUtils rsaVerifier = buildJwtUtils(0, "rs-1=RS256:" + publicKey, "default");
+
+        String hmacToken = generateToken(hmacNode);
+        String rsaToken = generateToken(rsaSigner);
+        assertNotNull(rsaVerifier.verifyJwtToken(rsaToken));
+        assertNull(rsaVerifier.verifyJwtToken(rsaToken.substring(0, rsaToken.length() - 4) + "AAAA"));
+
+        double hmacOpsPerSecond = measureVerification(hmacNode, hmacToken);
+        double rsaOpsPerSecond = measureVerification(rsaVerifier, rsaToken);
+
+        logger.debug("Uncached token verification: HS512 {} ops/s, RS256 {} ops/s",
+                Math.round(hmacOpsPerSecond), Math.round(rsaOpsPerSecond));
+
+        assertTrue(hmacOpsPerSecond > 0 && rsaOpsPerSecond > 0);
+    }
+
+    private double measureVerification(JwtUtils jwtUtils, String token) {
+        for (int i = 0; i < WARMUP_ITERATIONS / 10; i++) {
+            jwtUtils.verifyJwtToken(token);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS / 10; i++) {
+            assertNotNull(jwtUtils.verifyJwtToken(token));
+        }
+        return MEASURED_ITERATIONS / 10 / ((System.nanoTime() - start) / 1e9);
+    }
+
+    @Test
+    public void testAuthenticatedRequestTokenThroughput() {
+        // Former filter behaviour: validateJwtToken then getUserNameFromJwtToken, two full parses per request
+        JwtUtils uncached = buildJwtUtils(0);
+        String token = generateToken(uncached);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            uncached.validateJwtToken(token);
+            uncached.getUserNameFromJwtToken(token);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            if (uncached.validateJwtToken(token)) {
+                assertNotNull(uncached.getUserNameFromJwtToken(token));
+            }
+        }
+        double beforeOpsPerSecond = MEASURED_ITERATIONS / ((System.nanoTime() - start) / 1e9);
+
+        // Current filter behaviour: a single verifyJwtToken call, served from the verified-token cache
+        JwtUtils cached = buildJwtUtils(10000);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            cached.verifyJwtToken(token);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            assertNotNull(cached.verifyJwtToken(token).getSubject());
+        }
+        double afterOpsPerSecond = MEASURED_ITERATIONS / ((System.nanoTime() - start) / 1e9);
+
+        logger.debug("Token verification per authenticated request: before {} ops/s, after {} ops/s",
+                Math.round(beforeOpsPerSecond), Math.round(afterOpsPerSecond));
+
+        assertTrue(afterOpsPerSecond > beforeOpsPerSecond);
+    }
+}
@@ -0,0 +1,121 @@
+package com.openclassrooms.starterjwt;
+
+import com.openclassrooms.starterjwt.exception.TooManyRequestsException;
+import com.openclassrooms.starterjwt.security.LoginThrottle;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoginThrottleUnitTests {
+
+    @Test
+    public void testEmailIsThrottledAfterBurst() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        LoginThrottle loginThrottle = new LoginThrottle(meterRegistry, 3, 1, 100, 100, 4, 100);
+
+        for (int i = 0; i < 3; i++) {
+            loginThrottle.acquire("user@example.com", "10.0.0.1");
+        }
+
+        TooManyRequestsException rejection = assertThrows(TooManyRequestsException.class,
+                () -> loginThrottle.acquire("USER@example.com", "10.0.0.2"));
+        assertTrue(rejection.getRetryAfterSeconds() > 0 && rejection.getRetryAfterSeconds() <= 60);
+        assertEquals(1, meterRegistry.get("login.throttled").tag("key", "email").counter().count());
+
+        // Other emails from the same address are still allowed
+        loginThrottle.acquire("other@example.com", "10.0.0.1");
+    }
+
+    @Test
+    public void testAddressIsThrottledAcrossEmails() {
+        LoginThrottle loginThrottle = new LoginThrottle(new SimpleMeterRegistry(), 100, 100, 2, 1, 4, 100);
+
+        loginThrottle.acquire("first@example.com", "10.0.0.1");
+        loginThrottle.acquire("second@example.com", "10.0.0.1");
+
+        assertThrows(TooManyRequestsException.class, () -> loginThrottle.acquire("third@example.com", "10.0.0.1"));
+        loginThrottle.acquire("third@example.com", "10.0.0.2");
+    }
+
+    @Test
+    public void testSuccessfulAttemptsAreReleased() {
+        LoginThrottle loginThrottle = new LoginThrottle(new SimpleMeterRegistry(), 2, 1, 100, 100, 4, 100);
+
+        for (int i = 0; i < 10; i++) {
+            loginThrottle.acquire("user@example.com", "10.0.0.1");
+            loginThrottle.release("user@example.com");
+        }
+    }
+
+    @Test
+    public void testSuccessfulAttemptsStillCountAgainstTheAddress() {
+        LoginThrottle loginThrottle = new LoginThrottle(new SimpleMeterRegistry(), 100, 100, 3, 1, 4, 100);
+
+        loginThrottle.acquire("own@example.com", "10.0.0.1");
+        loginThrottle.release("own@example.com");
+        loginThrottle.acquire("guess@example.com", "10.0.0.1");
+        loginThrottle.acquire("own@example.com", "10.0.0.1");
+        loginThrottle.release("own@example.com");
+
+        assertThrows(TooManyRequestsException.class, () -> loginThrottle.acquire("guess@example.com", "10.0.0.1"));
+    }
+
+    @Test
+    public void testAttemptsRejectedByAddressLeaveEmailsUntouched() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        LoginThrottle loginThrottle = new LoginThrottle(meterRegistry, 5, 5, 1, 1, 4, 100);
+
+        loginThrottle.acquire("first@example.com", "10.0.0.1");
+        for (int i = 0; i < 50; i++) {
+            String email = "user" + i + "@example.com";
+            assertThrows(TooManyRequestsException.class, () -> loginThrottle.acquire(email, "10.0.0.1"));
+        }
+
+        assertEquals(1, meterRegistry.get("login.throttle.keys").tag("key", "email").gauge().value());
+    }
+
+    @Test
+    public void testFullStripeKeepsTrackedBuckets() {
+        // A single stripe of 10 keys, and no address limit worth mentioning
+        LoginThrottle loginThrottle = new LoginThrottle(new SimpleMeterRegistry(), 2, 1, 10_000, 10_000, 1, 10);
+
+        loginThrottle.acquire("victim@example.com", "10.0.0.1");
+        loginThrottle.acquire("victim@example.com", "10.0.0.1");
+        assertThrows(TooManyRequestsException.class, () -> loginThrottle.acquire("victim@example.com", "10.0.0.1"));
+
+        // Flooding the stripe with new emails must not reset the victim's bucket
+        for (int i = 0; i < 100; i++) {
+            try {
+                loginThrottle.acquire("attacker" + i + "@example.com", "10.0.0.2");
+            } catch (TooManyRequestsException e) {
+                // Expected once the stripe is full
+            }
+        }
+
+        assertThrows(TooManyRequestsException.class, () -> loginThrottle.acquire("victim@example.com", "10.0.0.1"));
+    }
+
+    @Test
+    public void testRefilledBucketsAreSwept() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        // A 1 ms refill interval lets every bucket become full again almost immediately
+        LoginThrottle loginThrottle = new LoginThrottle(meterRegistry, 1, 60_000, 1, 60_000, 4, 100);
+
+        for (int i = 0; i < 1_000; i++) {
+            try {
+                loginThrottle.acquire("user" + i + "@example.com", "10.0.0." + i);
+            } catch (TooManyRequestsException e) {
+                // A stripe still full of unrefilled buckets turns new keys away
+            }
+        }
+        assertTrue(meterRegistry.get("login.throttle.keys").tag("key", "email").gauge().value() <= 400,
+                "Each stripe is capped at its configured number of keys");
+
+        Thread.sleep(5);
+        loginThrottle.sweep();
+
+        assertEquals(0, meterRegistry.get("login.throttle.keys").tag("key", "email").gauge().value());
+        assertEquals(0, meterRegistry.get("login.throttle.keys").tag("key", "address").gauge().value());
+    }
+}
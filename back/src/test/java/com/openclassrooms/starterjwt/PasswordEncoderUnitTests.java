@@ -0,0 +1,174 @@
+package com.openclassrooms.starterjwt;
+
+import com.openclassrooms.starterjwt.exception.TooManyRequestsException;
+import com.openclassrooms.starterjwt.security.BoundedPasswordEncoder;
+import com.openclassrooms.starterjwt.security.CalibratedBCryptPasswordEncoder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordEncoderUnitTests {
+
+    @Test
+    public void testBoundedPasswordEncoderDelegatesHashing() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        BoundedPasswordEncoder passwordEncoder = new BoundedPasswordEncoder(new BCryptPasswordEncoder(4), 2, 4, 1, meterRegistry);
+
+        String encoded = passwordEncoder.encode("us!er-password456");
+
+        assertTrue(passwordEncoder.matches("us!er-password456", encoded));
+        assertFalse(passwordEncoder.matches("wrong-password", encoded));
+        assertEquals(3, meterRegistry.get("password.hash.duration").timer().count());
+
+        passwordEncoder.shutdown();
+    }
+
+    @Test
+    public void testBoundedPasswordEncoderEncodesBatchesInOrder() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        BoundedPasswordEncoder passwordEncoder = new BoundedPasswordEncoder(new BCryptPasswordEncoder(4), 3, 1, 1, meterRegistry);
+
+        List<String> rawPasswords = Arrays.asList("first", "second", "third", "fourth", "fifth");
+        List<String> encoded = passwordEncoder.encodeAll(rawPasswords);
+
+        assertEquals(rawPasswords.size(), encoded.size());
+        for (int i = 0; i < rawPasswords.size(); i++) {
+            assertTrue(passwordEncoder.matches(rawPasswords.get(i), encoded.get(i)));
+        }
+        assertTrue(passwordEncoder.encodeAll(Collections.emptyList()).isEmpty());
+
+        passwordEncoder.shutdown();
+    }
+
+    @Test
+    public void testBoundedPasswordEncoderRejectsWhenQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        PasswordEncoder blockingEncoder = new PasswordEncoder() {
+            @Override
+            public String encode(CharSequence rawPassword) {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return rawPassword.toString();
+            }
+
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                return rawPassword.toString().equals(encodedPassword);
+            }
+        };
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        BoundedPasswordEncoder passwordEncoder = new BoundedPasswordEncoder(blockingEncoder, 1, 1, 5, meterRegistry);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+
+        try {
+            // One request occupies the only hashing thread, a second one waits in the queue
+            Future<String> running = callers.submit(() -> passwordEncoder.encode("first"));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> queued = callers.submit(() -> passwordEncoder.encode("second"));
+            while (meterRegistry.get("password.hash.queue.depth").gauge().value() < 1) {
+                Thread.sleep(5);
+            }
+
+            TooManyRequestsException rejection = assertThrows(TooManyRequestsException.class,
+                    () -> passwordEncoder.encode("third"));
+            assertEquals(5, rejection.getRetryAfterSeconds());
+            assertEquals(1, meterRegistry.get("password.hash.rejected").counter().count());
+
+            release.countDown();
+            assertEquals("first", running.get(5, TimeUnit.SECONDS));
+            assertEquals("second", queued.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+            passwordEncoder.shutdown();
+        }
+    }
+
+    @Test
+    public void testBulkEncodingLeavesAThreadToLogins() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        PasswordEncoder blockingEncoder = new PasswordEncoder() {
+            @Override
+            public String encode(CharSequence rawPassword) {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return rawPassword.toString();
+            }
+
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                return rawPassword.toString().equals(encodedPassword);
+            }
+        };
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        BoundedPasswordEncoder passwordEncoder = new BoundedPasswordEncoder(blockingEncoder, 3, 1, 5, meterRegistry);
+        ExecutorService callers = Executors.newFixedThreadPool(1);
+
+        try {
+            Future<List<String>> bulk = callers.submit(() -> passwordEncoder.encodeAll(Arrays.asList("a", "b", "c", "d")));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            // Two of the three threads hash the import, the third still serves logins right away
+            assertEquals(2, meterRegistry.get("password.hash.active").gauge().value());
+            assertTrue(passwordEncoder.matches("login", "login"));
+            assertThrows(TooManyRequestsException.class,
+                    () -> passwordEncoder.encodeAll(Collections.singletonList("e")));
+
+            release.countDown();
+            assertEquals(Arrays.asList("a", "b", "c", "d"), bulk.get(5, TimeUnit.SECONDS));
+            assertEquals(Collections.singletonList("e"), passwordEncoder.encodeAll(Collections.singletonList("e")));
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+            passwordEncoder.shutdown();
+        }
+    }
+
+    @Test
+    public void testCalibrationStaysWithinBounds() {
+        CalibratedBCryptPasswordEncoder fastest = CalibratedBCryptPasswordEncoder.calibrate(0, 4, 6);
+        assertEquals(4, fastest.getStrength());
+
+        CalibratedBCryptPasswordEncoder slowest = CalibratedBCryptPasswordEncoder.calibrate(60_000, 4, 6);
+        assertEquals(6, slowest.getStrength());
+    }
+
+    @Test
+    public void testUpgradeEncodingWhenCostDiffers() {
+        CalibratedBCryptPasswordEncoder passwordEncoder = new CalibratedBCryptPasswordEncoder(5);
+
+        String sameCost = passwordEncoder.encode("us!er-password456");
+        String lowerCost = new BCryptPasswordEncoder(4).encode("us!er-password456");
+        String higherCost = new BCryptPasswordEncoder(6).encode("us!er-password456");
+
+        assertFalse(passwordEncoder.upgradeEncoding(sameCost));
+        assertTrue(passwordEncoder.upgradeEncoding(lowerCost));
+        assertTrue(passwordEncoder.upgradeEncoding(higherCost), "Hashes above the calibrated cost are downgraded too");
+        assertFalse(passwordEncoder.upgradeEncoding("not-a-bcrypt-hash"));
+        assertTrue(passwordEncoder.matches("us!er-password456", higherCost));
+    }
+}
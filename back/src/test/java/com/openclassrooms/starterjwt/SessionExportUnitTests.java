@@ -0,0 +1,184 @@
+package com.openclassrooms.starterjwt;
+
+import com.openclassrooms.starterjwt.services.SessionExportService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class SessionExportUnitTests {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testNdjsonGroupsParticipantsBySession() throws Exception {
+        SyntheticRows rows = new SyntheticRows(3, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        exportService(rows).export(SessionExportService.Format.NDJSON, out);
+
+        assertEquals(ndjsonLine(1, "") + ndjsonLine(2, "1") + ndjsonLine(3, "1,2"), out.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    @Test
+    public void testCsvQuotesFieldsThatNeedIt() throws Exception {
+        SyntheticRows rows = new SyntheticRows(3, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        exportService(rows).export(SessionExportService.Format.CSV, out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8.name()).split("\r\n");
+        assertEquals(4, lines.length);
+        assertEquals("id,name,date,teacher_id,description,capacity,users,createdAt,updatedAt", lines[0]);
+        assertTrue(lines[3].startsWith("3,Session 3,"));
+        assertTrue(lines[3].contains(",\"Yoga, \"\"gentle\"\"\",,1 2,"));
+    }
+
+    @Test
+    public void testHeapStaysFlatOnAMillionSessions() throws Exception {
+        int sessions = 1_000_000;
+        SyntheticRows rows = new SyntheticRows(sessions, 100_000);
+        CountingOutputStream out = new CountingOutputStream();
+
+        rows.baseline = usedHeap();
+        exportService(rows).export(SessionExportService.Format.NDJSON, out);
+
+        assertEquals(sessions, out.lines);
+        // Materialising a million DTOs alone would take several hundred megabytes
+        assertTrue(rows.maxGrowth < 32 * MB, "Heap grew by " + rows.maxGrowth / MB + " MB during the export");
+    }
+
+    private static SessionExportService exportService(SyntheticRows rows) {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            ResultSet resultSet = rows.resultSet();
+            while (resultSet.next()) {
+                handler.processRow(resultSet);
+            }
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+
+        return new SessionExportService(jdbcTemplate, Jackson2ObjectMapperBuilder.json().build(), 1000, 600);
+    }
+
+    private static String ndjsonLine(int id, String users) {
+        return "{\"id\":" + id + ",\"name\":\"Session " + id + "\",\"date\":" + Timestamp.valueOf("2024-01-01 10:00:00").getTime()
+                + ",\"teacher_id\":1,\"description\":\"Yoga, \\\"gentle\\\"\",\"capacity\":null,\"users\":[" + users + "]"
+                + ",\"createdAt\":[2024,1,1,10,0],\"updatedAt\":[2024,1,1,10,0]}\n";
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Forward-only rows of the export query generated on the fly: session n has (n - 1) % 3
+     * participants, so zero participants still yields one row with a null user.
+     */
+    private static class SyntheticRows {
+        private final int sessions;
+        private final int sampleEvery;
+        private final Timestamp timestamp = Timestamp.valueOf("2024-01-01 10:00:00");
+
+        private long session;
+        private long participant;
+        private long rows;
+        private boolean wasNull;
+
+        long baseline;
+        long maxGrowth;
+
+        SyntheticRows(int sessions, int sampleEvery) {
+            this.sessions = sessions;
+            this.sampleEvery = sampleEvery;
+        }
+
+        ResultSet resultSet() {
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "next":
+                                return next();
+                            case "wasNull":
+                                return wasNull;
+                            case "getLong":
+                                return column((Integer) args[0]);
+                            case "getInt":
+                                // Capacity, left unlimited
+                                wasNull = true;
+                                return 0;
+                            case "getString":
+                                wasNull = false;
+                                return (Integer) args[0] == 2 ? "Session " + session : "Yoga, \"gentle\"";
+                            case "getTimestamp":
+                                wasNull = false;
+                                return timestamp;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        private boolean next() {
+            if (session > 0 && participant < (session - 1) % 3) {
+                participant++;
+            } else {
+                session++;
+                participant = (session - 1) % 3 == 0 ? 0 : 1;
+            }
+
+            if (sampleEvery > 0 && ++rows % sampleEvery == 0) {
+                maxGrowth = Math.max(maxGrowth, usedHeap() - baseline);
+            }
+            return session <= sessions;
+        }
+
+        private long column(int index) {
+            wasNull = index == 9 && participant == 0;
+            switch (index) {
+                case 1:
+                    return session;
+                case 4:
+                    return 1;
+                default:
+                    return participant;
+            }
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        long lines;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    lines++;
+                }
+            }
+        }
+    }
+}
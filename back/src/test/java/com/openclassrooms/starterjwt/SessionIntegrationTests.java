@@ -1,21 +1,47 @@
 package com.openclassrooms.starterjwt;
 
 import com.jayway.jsonpath.JsonPath;
+import com.openclassrooms.starterjwt.controllers.SessionController;
+import com.openclassrooms.starterjwt.exception.ConflictException;
 import com.openclassrooms.starterjwt.models.Session;
+import com.openclassrooms.starterjwt.models.Teacher;
+import com.openclassrooms.starterjwt.models.User;
 import com.openclassrooms.starterjwt.repository.SessionRepository;
+import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.services.SessionService;
+import com.openclassrooms.starterjwt.services.TeacherService;
+import com.openclassrooms.starterjwt.services.UpcomingSessionsView;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.TestSecurityContextHolder;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -24,6 +50,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @AutoConfigureMockMvc
 @TestPropertySource(locations = "classpath:test.properties")
 public class SessionIntegrationTests extends BaseIntegrationTests {
+    private static final Logger logger = LoggerFactory.getLogger(SessionIntegrationTests.class);
 
     @Autowired
     private MockMvc mockMvc;
@@ -31,6 +58,21 @@ public class SessionIntegrationTests extends BaseIntegrationTests {
     @Autowired
     private SessionRepository sessionRepository;
 
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private SessionService sessionService;
+
+    @Autowired
+    private TeacherService teacherService;
+
+    @Autowired
+    private UpcomingSessionsView upcomingSessionsView;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     private String authToken;
 
     private List<Session> sessionsCreatedDuringTest = new ArrayList<>();
@@ -63,6 +105,52 @@ public class SessionIntegrationTests extends BaseIntegrationTests {
         }
     }
 
+    @Test
+    public void testNonAdminCannotCreateSession() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/register")
+                        .contentType("application/json")
+                        .content("{\"email\":\"non-admin@example.com\",\"firstName\":\"John\",\"lastName\":\"Doe\",\"password\":\"us!er-password456\"}"))
+                .andExpect(status().isOk());
+
+        try {
+            String userToken = JsonPath.read(mockMvc.perform(MockMvcRequestBuilders.post("/api/auth/login")
+                            .contentType("application/json")
+                            .content("{\"email\":\"non-admin@example.com\",\"password\":\"us!er-password456\"}"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString(), "$.token");
+            TestSecurityContextHolder.clearContext();
+
+            mockMvc.perform(MockMvcRequestBuilders.post("/api/session")
+                            .header("Authorization", "Bearer " + userToken)
+                            .contentType("application/json")
+                            .content("{\"name\":\"Forbidden session\",\"date\":\"2024-02-06\",\"teacher_id\":1,\"description\":\"Lorem ipsum dolor sit amet.\"}"))
+                    .andExpect(status().isForbidden());
+            mockMvc.perform(MockMvcRequestBuilders.delete("/api/session/4")
+                            .header("Authorization", "Bearer " + userToken))
+                    .andExpect(status().isForbidden());
+        } finally {
+            userRepository.findByEmail("non-admin@example.com").ifPresent(userRepository::delete);
+        }
+    }
+
+    @Test
+    public void testCreateSessionReadsTheTeacherFromTheCache() throws Exception {
+        teacherService.findById(1L);
+        Statistics statistics = resetStatistics();
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/api/session")
+                        .header("Authorization", "Bearer " + authToken)
+                        .contentType("application/json")
+                        .content("{\"name\":\"Session with cached teacher\",\"date\":\"2024-02-10\",\"teacher_id\":1,\"description\":\"Cached teacher.\"}"))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.teacher_id").value(1))
+                .andReturn();
+        long teacherLoads = statistics.getEntityStatistics(Teacher.class.getName()).getLoadCount();
+        sessionRepository.deleteById(Long.valueOf(JsonPath.read(result.getResponse().getContentAsString(), "$.id").toString()));
+
+        assertEquals(0, teacherLoads);
+    }
+
     @Test
     public void testCreateSessionWithInvalidData() throws Exception {
         String sessionCreationPayload = "{}";
@@ -74,6 +162,177 @@ public class SessionIntegrationTests extends BaseIntegrationTests {
                         .andExpect(status().isBadRequest());
     }
 
+    @Test
+    public void testFindAllSessionsRunsThreeQueries() throws Exception {
+        long sessionCount = sessionRepository.count();
+        Session sessionWithParticipants = sessionRepository.findAll().stream()
+                .filter(session -> !session.getUsers().isEmpty())
+                .findFirst().orElse(null);
+        assertNotNull(sessionWithParticipants);
+
+        Statistics statistics = resetStatistics();
+
+        String response = mockMvc.perform(MockMvcRequestBuilders.get("/api/session")
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.length()").value((int) sessionCount))
+                .andReturn().getResponse().getContentAsString();
+
+        // The ETag aggregate, the session projection and the participant ids, whatever the number of sessions
+        assertEquals(3, statistics.getPrepareStatementCount());
+
+        List<Integer> participants = JsonPath.read(response, "$[?(@.id == " + sessionWithParticipants.getId() + ")].users[*]");
+        assertEquals(
+                sessionWithParticipants.getUsers().stream().map(user -> user.getId().intValue()).sorted().collect(Collectors.toList()),
+                participants.stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testPagedSessionsFollowTheCursor() throws Exception {
+        List<Long> expected = sessionRepository.findAll().stream()
+                .sorted(Comparator.comparing(Session::getDate).thenComparing(Session::getId))
+                .map(Session::getId)
+                .collect(Collectors.toList());
+
+        List<Long> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get("/api/session")
+                    .header("Authorization", "Bearer " + authToken)
+                    .param("size", "2");
+            if (cursor != null) {
+                request.param("cursor", cursor);
+            }
+            MvcResult result = mockMvc.perform(request)
+                    .andExpect(status().isOk())
+                    .andReturn();
+
+            List<Integer> ids = JsonPath.read(result.getResponse().getContentAsString(), "$[*].id");
+            assertTrue(ids.size() <= 2);
+            ids.forEach(id -> seen.add(id.longValue()));
+            cursor = result.getResponse().getHeader(SessionController.NEXT_CURSOR_HEADER);
+        } while (cursor != null);
+
+        assertEquals(expected, seen);
+
+        // Cross-origin callers can only read the cursor once it is exposed
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/session")
+                        .header("Authorization", "Bearer " + authToken)
+                        .header("Origin", "http://localhost:4200")
+                        .param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string("Access-Control-Expose-Headers", SessionController.NEXT_CURSOR_HEADER));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/session")
+                        .header("Authorization", "Bearer " + authToken)
+                        .param("cursor", "not a cursor"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testExportStreamsOneLinePerSession() throws Exception {
+        long sessionCount = sessionRepository.count();
+
+        MvcResult started = mockMvc.perform(MockMvcRequestBuilders.get("/api/session/export")
+                        .header("Authorization", "Bearer " + authToken)
+                        .param("format", "ndjson"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        assertEquals(TimeUnit.MINUTES.toMillis(10), started.getRequest().getAsyncContext().getTimeout());
+        String body = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertEquals(sessionCount, lines.length);
+        assertTrue(Arrays.stream(lines).allMatch(line -> line.startsWith("{") && line.endsWith("}")));
+        assertEquals(4, (int) JsonPath.read(Arrays.stream(lines).filter(line -> line.contains("\"id\":4,")).findFirst().orElse("{}"), "$.id"));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/session/export")
+                        .header("Authorization", "Bearer " + authToken)
+                        .param("format", "xml"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testUnchangedListingIsNotReloaded() throws Exception {
+        String eTag = mockMvc.perform(MockMvcRequestBuilders.get("/api/session")
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string("Cache-Control", "no-cache, private"))
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotNull(eTag);
+
+        Statistics statistics = resetStatistics();
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/session")
+                        .header("Authorization", "Bearer " + authToken)
+                        .header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+        assertEquals(1, statistics.getPrepareStatementCount());
+
+        // Joining a session changes the validator
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/session/{sessionId}/participate/{userId}", 5, 3)
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk());
+        try {
+            mockMvc.perform(MockMvcRequestBuilders.get("/api/session")
+                            .header("Authorization", "Bearer " + authToken)
+                            .header("If-None-Match", eTag))
+                    .andExpect(status().isOk());
+            // Seat counters leave updated_at alone, so a date alone must never validate the listing
+            mockMvc.perform(MockMvcRequestBuilders.get("/api/session")
+                            .header("Authorization", "Bearer " + authToken)
+                            .header("If-Modified-Since", "Fri, 31 Dec 2100 23:59:59 GMT"))
+                    .andExpect(status().isOk())
+                    .andExpect(MockMvcResultMatchers.header().doesNotExist("Last-Modified"));
+        } finally {
+            mockMvc.perform(MockMvcRequestBuilders.delete("/api/session/{sessionId}/participate/{userId}", 5, 3)
+                            .header("Authorization", "Bearer " + authToken))
+                    .andExpect(status().isOk());
+        }
+    }
+
+    @Test
+    public void testStaleUpdateIsRejected() throws Exception {
+        Session session = sessionRepository.save(Session.builder()
+                .name("Session for If-Match")
+                .date(new Date())
+                .description("Test session for If-Match.")
+                .build());
+        String payload = "{\"name\":\"Session for If-Match\",\"date\":\"2024-02-10\",\"teacher_id\":1,\"description\":\"Updated.\"}";
+
+        try {
+            String eTag = mockMvc.perform(MockMvcRequestBuilders.get("/api/session/{id}", session.getId())
+                            .header("Authorization", "Bearer " + authToken))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getHeader("ETag");
+
+            String updatedETag = mockMvc.perform(MockMvcRequestBuilders.put("/api/session/{id}", session.getId())
+                            .header("Authorization", "Bearer " + authToken)
+                            .header("If-Match", eTag)
+                            .contentType("application/json")
+                            .content(payload))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getHeader("ETag");
+            assertNotEquals(eTag, updatedETag);
+
+            mockMvc.perform(MockMvcRequestBuilders.put("/api/session/{id}", session.getId())
+                            .header("Authorization", "Bearer " + authToken)
+                            .header("If-Match", eTag)
+                            .contentType("application/json")
+                            .content(payload))
+                    .andExpect(status().isPreconditionFailed());
+
+            mockMvc.perform(MockMvcRequestBuilders.get("/api/session/{id}", session.getId())
+                            .header("Authorization", "Bearer " + authToken)
+                            .header("If-None-Match", updatedETag))
+                    .andExpect(status().isNotModified());
+        } finally {
+            sessionRepository.deleteById(session.getId());
+        }
+    }
+
     @Test
     public void testGetSessionById() throws Exception {
         mockMvc.perform(MockMvcRequestBuilders.get("/api/session/4")
@@ -203,6 +462,106 @@ public class SessionIntegrationTests extends BaseIntegrationTests {
         sessionRepository.deleteById(Long.valueOf(createdSessionId));
     }
 
+    @Test
+    public void testParticipateWritesWithoutLoadingTheSession() throws Exception {
+        Session session = sessionRepository.save(Session.builder()
+                .name("Session for participate statements")
+                .date(new Date())
+                .description("Test session for participate statements.")
+                .build());
+
+        try {
+            Statistics statistics = resetStatistics();
+            mockMvc.perform(MockMvcRequestBuilders.post("/api/session/{sessionId}/participate/{userId}", session.getId(), 3)
+                            .header("Authorization", "Bearer " + authToken))
+                    .andExpect(status().isOk());
+            // The seat counter update, the PARTICIPATE write and the upcoming view reading the row back
+            assertEquals(3, statistics.getPrepareStatementCount());
+
+            mockMvc.perform(MockMvcRequestBuilders.post("/api/session/{sessionId}/participate/{userId}", session.getId(), 3)
+                            .header("Authorization", "Bearer " + authToken))
+                    .andExpect(status().isBadRequest());
+            mockMvc.perform(MockMvcRequestBuilders.post("/api/session/{sessionId}/participate/{userId}", session.getId(), 999999)
+                            .header("Authorization", "Bearer " + authToken))
+                    .andExpect(status().isNotFound());
+
+            statistics = resetStatistics();
+            mockMvc.perform(MockMvcRequestBuilders.delete("/api/session/{sessionId}/participate/{userId}", session.getId(), 3)
+                            .header("Authorization", "Bearer " + authToken))
+                    .andExpect(status().isOk());
+            // The seat counter update, the PARTICIPATE write and the upcoming view reading the row back
+            assertEquals(3, statistics.getPrepareStatementCount());
+
+            mockMvc.perform(MockMvcRequestBuilders.delete("/api/session/{sessionId}/participate/{userId}", 999999, 3)
+                            .header("Authorization", "Bearer " + authToken))
+                    .andExpect(status().isNotFound());
+        } finally {
+            sessionRepository.deleteById(session.getId());
+        }
+    }
+
+    @Test
+    public void testConcurrentBookingsNeverOverbook() throws Exception {
+        int capacity = 25;
+        int candidates = 120;
+        Session session = sessionRepository.save(Session.builder()
+                .name("Session for contention")
+                .date(new Date())
+                .description("Test session for concurrent bookings.")
+                .capacity(capacity)
+                .build());
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < candidates; i++) {
+            users.add(User.builder()
+                    .email("contention-" + i + "@example.com")
+                    .lastName("Doe")
+                    .firstName("John")
+                    .password("password")
+                    .admin(false)
+                    .build());
+        }
+        users = userRepository.saveAll(users);
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            AtomicInteger booked = new AtomicInteger();
+            AtomicInteger refused = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> bookings = new ArrayList<>();
+            for (User user : users) {
+                bookings.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        sessionService.participate(session.getId(), user.getId());
+                        booked.incrementAndGet();
+                    } catch (ConflictException e) {
+                        refused.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+
+            long startedAt = System.nanoTime();
+            start.countDown();
+            for (Future<?> booking : bookings) {
+                booking.get(30, TimeUnit.SECONDS);
+            }
+            logger.debug("Concurrent bookings: {} attempts on 16 threads in {} ms",
+                    candidates, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+
+            assertEquals(capacity, booked.get());
+            assertEquals(candidates - capacity, refused.get());
+            assertEquals(capacity, (int) jdbcTemplate.queryForObject(
+                    "select count(*) from PARTICIPATE where session_id = ?", Integer.class, session.getId()));
+            assertEquals(capacity, (int) jdbcTemplate.queryForObject(
+                    "select participant_count from SESSIONS where id = ?", Integer.class, session.getId()));
+        } finally {
+            executor.shutdownNow();
+            sessionRepository.deleteById(session.getId());
+            userRepository.deleteAll(users);
+        }
+    }
+
     @Test
     public void testRemoveUserFromSessionParticipants() throws Exception {
         // Create a new session for testing with a user in the participants list
@@ -236,6 +595,186 @@ public class SessionIntegrationTests extends BaseIntegrationTests {
         sessionRepository.deleteById(Long.valueOf(createdSessionId));
     }
 
+    @Test
+    public void testCreateSessionResolvesParticipantsInOneQuery() throws Exception {
+        String payload = "{\"name\":\"Session with participants\",\"date\":\"2024-02-12\",\"teacher_id\":1," +
+                "\"description\":\"Participants resolved in one batch.\",\"users\":[2,3]}";
+
+        Statistics statistics = resetStatistics();
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/api/session")
+                        .header("Authorization", "Bearer " + authToken)
+                        .contentType("application/json")
+                        .content(payload))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.users.length()").value(2))
+                .andReturn();
+
+        assertEquals(2, statistics.getEntityStatistics(User.class.getName()).getLoadCount());
+        // The participants, then the upcoming view reading the new row back
+        assertEquals(2, statistics.getQueryExecutionCount());
+
+        Long sessionId = Long.valueOf(JsonPath.read(result.getResponse().getContentAsString(), "$.id").toString());
+        sessionRepository.deleteById(sessionId);
+    }
+
+    @Test
+    public void testCreateSessionWithUnknownParticipantIsRejected() throws Exception {
+        long sessions = sessionRepository.count();
+        String payload = "{\"name\":\"Session with a ghost\",\"date\":\"2024-02-12\",\"teacher_id\":1," +
+                "\"description\":\"One participant does not exist.\",\"users\":[2," + Integer.MAX_VALUE + "]}";
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/session")
+                        .header("Authorization", "Bearer " + authToken)
+                        .contentType("application/json")
+                        .content(payload))
+                .andExpect(status().isBadRequest());
+
+        assertEquals(sessions, sessionRepository.count());
+    }
+
+    @Test
+    public void testUpcomingSessionsFollowWrites() throws Exception {
+        LocalDate day = LocalDate.now().plusDays(3);
+        String payload = "{\"name\":\"Upcoming session\",\"date\":\"" + day + "\",\"teacher_id\":1," +
+                "\"description\":\"Listed from memory.\",\"capacity\":10}";
+        MvcResult creation = mockMvc.perform(MockMvcRequestBuilders.post("/api/session")
+                        .header("Authorization", "Bearer " + authToken)
+                        .contentType("application/json")
+                        .content(payload))
+                .andExpect(status().isOk())
+                .andReturn();
+        Long sessionId = Long.valueOf(JsonPath.read(creation.getResponse().getContentAsString(), "$.id").toString());
+        String upcoming = "$[?(@.id == " + sessionId + ")]";
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/session/{id}/participate/{userId}", sessionId, 2)
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk());
+
+        Statistics statistics = resetStatistics();
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/session/upcoming")
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath(upcoming + ".participantCount").value(1))
+                .andExpect(MockMvcResultMatchers.jsonPath(upcoming + ".capacity").value(10));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/session/upcoming")
+                        .param("from", day.plusDays(1).toString())
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath(upcoming).isEmpty());
+        assertEquals(0, statistics.getPrepareStatementCount());
+
+        mockMvc.perform(MockMvcRequestBuilders.delete("/api/session/{id}/participate/{userId}", sessionId, 2)
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk());
+        mockMvc.perform(MockMvcRequestBuilders.delete("/api/session/{id}", sessionId)
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/session/upcoming")
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath(upcoming).isEmpty());
+    }
+
+    @Test
+    public void testCapacityCannotBeBelowParticipants() throws Exception {
+        String payload = "{\"name\":\"Full session\",\"date\":\"2024-02-12\",\"teacher_id\":1," +
+                "\"description\":\"Two seats, both taken.\",\"capacity\":2,\"users\":[2,3]}";
+        long sessions = sessionRepository.count();
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/session")
+                        .header("Authorization", "Bearer " + authToken)
+                        .contentType("application/json")
+                        .content(payload.replace("\"capacity\":2", "\"capacity\":1")))
+                .andExpect(status().isConflict());
+        assertEquals(sessions, sessionRepository.count());
+
+        MvcResult creation = mockMvc.perform(MockMvcRequestBuilders.post("/api/session")
+                        .header("Authorization", "Bearer " + authToken)
+                        .contentType("application/json")
+                        .content(payload))
+                .andExpect(status().isOk())
+                .andReturn();
+        Long sessionId = Long.valueOf(JsonPath.read(creation.getResponse().getContentAsString(), "$.id").toString());
+
+        try {
+            mockMvc.perform(MockMvcRequestBuilders.put("/api/session/{id}", sessionId)
+                            .header("Authorization", "Bearer " + authToken)
+                            .contentType("application/json")
+                            .content(payload.replace("\"capacity\":2", "\"capacity\":1")))
+                    .andExpect(status().isConflict());
+
+            assertEquals(2, (int) jdbcTemplate.queryForObject(
+                    "select capacity from SESSIONS where id = ?", Integer.class, sessionId));
+            assertEquals(2, (int) jdbcTemplate.queryForObject(
+                    "select participant_count from SESSIONS where id = ?", Integer.class, sessionId));
+
+            // Dropping a participant in the same update makes the smaller capacity fit
+
+            mockMvc.perform(MockMvcRequestBuilders.put("/api/session/{id}", sessionId)
+                            .header("Authorization", "Bearer " + authToken)
+                            .contentType("application/json")
+                            .content(payload.replace("\"capacity\":2", "\"capacity\":1").replace("[2,3]", "[2]")))
+                    .andExpect(status().isOk())
+                    .andExpect(MockMvcResultMatchers.jsonPath("$.capacity").value(1));
+        } finally {
+            sessionRepository.deleteById(sessionId);
+        }
+    }
+
+    @Test
+    public void testUpcomingSessionsViewIsRebuiltFromTheDatabase() {
+        Session session = sessionRepository.save(Session.builder()
+                .name("Written behind the view")
+                .date(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(2)))
+                .description("Only visible after a rebuild.")
+                .build());
+        Date from = new Date();
+        Date to = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(7));
+
+        try {
+            assertTrue(upcomingSessionsView.find(from, to).stream().noneMatch(s -> s.getId().equals(session.getId())));
+
+            upcomingSessionsView.rebuild();
+
+            assertTrue(upcomingSessionsView.find(from, to).stream().anyMatch(s -> s.getId().equals(session.getId())));
+        } finally {
+            sessionRepository.deleteById(session.getId());
+            upcomingSessionsView.rebuild();
+        }
+    }
+
+    @Test
+    public void testLateSaveKeepsTheCommittedParticipantCount() throws Exception {
+        Session session = sessionRepository.save(Session.builder()
+                .name("Saved with a stale snapshot")
+                .date(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(2)))
+                .description("Joined after the snapshot was taken.")
+                .capacity(10)
+                .users(new HashSet<>())
+                .build());
+        Date from = new Date();
+        Date to = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(7));
+
+        try {
+            mockMvc.perform(MockMvcRequestBuilders.post("/api/session/{id}/participate/{userId}", session.getId(), 2)
+                            .header("Authorization", "Bearer " + authToken))
+                    .andExpect(status().isOk());
+
+            // The update that saved this snapshot commits after the participation
+            upcomingSessionsView.saved(session);
+
+            assertEquals(1, upcomingSessionsView.find(from, to).stream()
+                    .filter(s -> s.getId().equals(session.getId()))
+                    .findFirst()
+                    .orElseThrow(AssertionError::new)
+                    .getParticipantCount());
+        } finally {
+            jdbcTemplate.update("delete from PARTICIPATE where session_id = ?", session.getId());
+            sessionRepository.deleteById(session.getId());
+            upcomingSessionsView.rebuild();
+        }
+    }
+
     @Test
     public void testSessionEqualsAndHashCode() {
         Session originalSession = sessionRepository.findById(3L).orElse(null);
@@ -247,6 +786,7 @@ public class SessionIntegrationTests extends BaseIntegrationTests {
                         originalSession.getDate(),
                 originalSession.getDescription(),
                 originalSession.getTeacher(),
+                        originalSession.getCapacity(),
                         originalSession.getUsers(),
                         originalSession.getCreatedAt(),
                         originalSession.getUpdatedAt()
@@ -2,6 +2,7 @@ package com.openclassrooms.starterjwt;
 
 import com.openclassrooms.starterjwt.dto.SessionDto;
 import com.openclassrooms.starterjwt.exception.BadRequestException;
+import com.openclassrooms.starterjwt.exception.ConflictException;
 import com.openclassrooms.starterjwt.exception.NotFoundException;
 import com.openclassrooms.starterjwt.mapper.SessionMapper;
 import com.openclassrooms.starterjwt.models.Session;
@@ -10,6 +11,7 @@ import com.openclassrooms.starterjwt.models.User;
 import com.openclassrooms.starterjwt.repository.SessionRepository;
 import com.openclassrooms.starterjwt.repository.UserRepository;
 import com.openclassrooms.starterjwt.services.SessionService;
+import com.openclassrooms.starterjwt.services.UpcomingSessionsView;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -38,6 +40,9 @@ public class SessionUnitTests {
     @Mock
     private UserRepository userRepository;
 
+    @Mock
+    private UpcomingSessionsView upcomingSessionsView;
+
     @InjectMocks
     private SessionService sessionService;
 
@@ -67,7 +72,7 @@ public class SessionUnitTests {
                 .date(new Date())
                 .description("Introduction to Mathematics")
                 .teacher(teacher)
-                .users(Arrays.asList(user))
+                .users(new HashSet<>(Arrays.asList(user)))
                 .build();
 
         // Verify that the Session is built correctly
@@ -82,7 +87,7 @@ public class SessionUnitTests {
 
         assertNotNull(session.getUsers());
         assertEquals(1, session.getUsers().size());
-        assertEquals("john.doe@example.com", session.getUsers().get(0).getEmail());
+        assertEquals("john.doe@example.com", session.getUsers().iterator().next().getEmail());
     }
 
     @Test
@@ -181,7 +186,8 @@ public class SessionUnitTests {
         sessionToCreate.setId(1L);
         sessionToCreate.setName("New Session");
 
-        when(sessionRepository.save(sessionToCreate)).thenReturn(sessionToCreate);
+        when(sessionRepository.saveAndFlush(sessionToCreate)).thenReturn(sessionToCreate);
+        when(sessionRepository.refreshParticipantCount(sessionToCreate.getId())).thenReturn(1);
 
         Session createdSession = sessionService.create(sessionToCreate);
 
@@ -202,7 +208,9 @@ public class SessionUnitTests {
         updatedSession.setCreatedAt(existingSession.getCreatedAt());
 
         when(sessionRepository.findById(1L)).thenReturn(Optional.of(existingSession));
-        when(sessionRepository.save(updatedSession)).thenReturn(updatedSession);
+        when(sessionRepository.bumpVersion(1L)).thenReturn(1);
+        when(sessionRepository.saveAndFlush(updatedSession)).thenReturn(updatedSession);
+        when(sessionRepository.refreshParticipantCount(1L)).thenReturn(1);
 
         Session result = sessionService.update(1L, updatedSession);
 
@@ -210,6 +218,14 @@ public class SessionUnitTests {
         assertEquals("Updated Session", result.getName());
     }
 
+    @Test
+    void testUpdateUnknownSession() {
+        when(sessionRepository.bumpVersion(42L)).thenReturn(0);
+
+        assertThrows(NotFoundException.class, () -> sessionService.update(42L, new Session()));
+        verify(sessionRepository, never()).saveAndFlush(any());
+    }
+
     @Test
     void testDeleteSession() {
         Session existingSession = new Session();
@@ -254,30 +270,23 @@ public class SessionUnitTests {
 
     @Test
     void testParticipateInSession() {
-        Session session = new Session();
-        session.setId(1L);
-        session.setName("Sample Session");
-        session.setUsers(new ArrayList<>());
-
-        User user = new User();
-        user.setId(2L);
-
-        when(sessionRepository.findById(1L)).thenReturn(Optional.of(session));
-        when(userRepository.findById(2L)).thenReturn(Optional.of(user));
+        when(sessionRepository.reserveSeat(1L)).thenReturn(1);
+        when(sessionRepository.addParticipant(1L, 2L)).thenReturn(1);
 
         sessionService.participate(1L, 2L);
 
-        assertTrue(session.getUsers().contains(user));
-        verify(sessionRepository, times(1)).save(session);
+        verify(sessionRepository, times(1)).reserveSeat(1L);
+        verify(sessionRepository, times(1)).addParticipant(1L, 2L);
+        verify(sessionRepository, never()).findById(any());
+        verify(sessionRepository, never()).save(any());
     }
 
     @Test
     void testParticipateInSessionUserNotFound() {
-        Session session = new Session();
-        session.setId(1L);
-
-        when(sessionRepository.findById(1L)).thenReturn(Optional.of(session));
-        when(userRepository.findById(2L)).thenReturn(Optional.empty());
+        when(sessionRepository.reserveSeat(1L)).thenReturn(1);
+        when(sessionRepository.addParticipant(1L, 2L)).thenReturn(0);
+        when(sessionRepository.existsById(1L)).thenReturn(true);
+        when(userRepository.existsById(2L)).thenReturn(false);
 
         assertThrows(NotFoundException.class, () -> sessionService.participate(1L, 2L));
         verify(sessionRepository, never()).save(any());
@@ -285,54 +294,52 @@ public class SessionUnitTests {
 
     @Test
     void testParticipateInSessionAlreadyParticipating() {
-        Session session = new Session();
-        session.setId(1L);
-
-        User existingUser = new User();
-        existingUser.setId(2L);
-        existingUser.setEmail("test@example.com");
-        existingUser.setLastName("Doe");
-        existingUser.setFirstName("John");
-        existingUser.setPassword("password");
-        existingUser.setAdmin(false);
-
-        session.setUsers(Collections.singletonList(existingUser));
-
-        when(sessionRepository.findById(1L)).thenReturn(Optional.of(session));
-        when(userRepository.findById(2L)).thenReturn(Optional.of(existingUser));
+        when(sessionRepository.reserveSeat(1L)).thenReturn(1);
+        when(sessionRepository.addParticipant(1L, 2L)).thenReturn(0);
+        when(sessionRepository.existsById(1L)).thenReturn(true);
+        when(userRepository.existsById(2L)).thenReturn(true);
+        when(sessionRepository.countParticipant(1L, 2L)).thenReturn(1);
 
         assertThrows(BadRequestException.class, () -> sessionService.participate(1L, 2L));
         verify(sessionRepository, never()).save(any());
     }
 
     @Test
-    void testNoLongerParticipateInSession() {
-        Session session = new Session();
-        session.setId(1L);
-        session.setName("Sample Session");
-        User user = new User();
-        user.setId(2L);
-        session.setUsers(Collections.singletonList(user));
+    void testParticipateInFullSession() {
+        when(sessionRepository.reserveSeat(1L)).thenReturn(0);
+        when(sessionRepository.existsById(1L)).thenReturn(true);
+        when(userRepository.existsById(2L)).thenReturn(true);
+        when(sessionRepository.countParticipant(1L, 2L)).thenReturn(0);
+
+        assertThrows(ConflictException.class, () -> sessionService.participate(1L, 2L));
+        verify(sessionRepository, never()).addParticipant(any(), any());
+    }
 
-        when(sessionRepository.findById(1L)).thenReturn(Optional.of(session));
-        when(userRepository.findById(2L)).thenReturn(Optional.of(user));
+    @Test
+    void testNoLongerParticipateInSession() {
+        when(sessionRepository.removeParticipant(1L, 2L)).thenReturn(1);
 
         sessionService.noLongerParticipate(1L, 2L);
 
-        assertTrue(session.getUsers().isEmpty());
-        verify(sessionRepository, times(1)).save(session);
+        verify(sessionRepository, times(1)).removeParticipant(1L, 2L);
+        verify(sessionRepository, times(1)).releaseSeat(1L);
+        verify(sessionRepository, never()).save(any());
     }
 
     @Test
     void testNoLongerParticipateInSessionNotParticipating() {
-        Session session = new Session();
-        session.setId(1L);
-        session.setUsers(new ArrayList<>());
-
-        when(sessionRepository.findById(1L)).thenReturn(Optional.of(session));
-        when(userRepository.findById(2L)).thenReturn(Optional.of(new User()));
+        when(sessionRepository.removeParticipant(1L, 2L)).thenReturn(0);
+        when(sessionRepository.existsById(1L)).thenReturn(true);
 
         assertThrows(BadRequestException.class, () -> sessionService.noLongerParticipate(1L, 2L));
         verify(sessionRepository, never()).save(any());
     }
+
+    @Test
+    void testNoLongerParticipateInMissingSession() {
+        when(sessionRepository.removeParticipant(1L, 2L)).thenReturn(0);
+        when(sessionRepository.existsById(1L)).thenReturn(false);
+
+        assertThrows(NotFoundException.class, () -> sessionService.noLongerParticipate(1L, 2L));
+    }
 }
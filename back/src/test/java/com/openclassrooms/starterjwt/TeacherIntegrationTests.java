@@ -3,6 +3,10 @@ package com.openclassrooms.starterjwt;
 import com.jayway.jsonpath.JsonPath;
 import com.openclassrooms.starterjwt.models.Teacher;
 import com.openclassrooms.starterjwt.repository.TeacherRepository;
+import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.security.jwt.AuthTokenFilter;
+import com.openclassrooms.starterjwt.security.services.UserDetailsServiceImpl;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,6 +14,7 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
@@ -30,12 +35,65 @@ public class TeacherIntegrationTests extends BaseIntegrationTests {
     @Autowired
     private TeacherRepository teacherRepository;
 
+    @Autowired
+    private AuthTokenFilter authTokenFilter;
+
+    @Autowired
+    private UserDetailsServiceImpl userDetailsService;
+
+    @Autowired
+    private UserRepository userRepository;
+
     @BeforeEach
     public void setUp() throws Exception {
         performLogin();
         authToken = JsonPath.read(performLogin().andReturn().getResponse().getContentAsString(), "$.token");
     }
 
+    @Test
+    public void testUnchangedTeachersAreNotReloaded() throws Exception {
+        String eTag = mockMvc.perform(MockMvcRequestBuilders.get("/api/teacher")
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        Statistics statistics = resetStatistics();
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/teacher")
+                        .header("Authorization", "Bearer " + authToken)
+                        .header("If-None-Match", eTag))
+                .andExpect(MockMvcResultMatchers.status().isNotModified())
+                .andExpect(MockMvcResultMatchers.content().string(""));
+
+        // Only the aggregate behind the ETag
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    public void testEditedTeacherIsReloaded() throws Exception {
+        String eTag = mockMvc.perform(MockMvcRequestBuilders.get("/api/teacher")
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        Teacher teacher = teacherRepository.findById(2L).orElseThrow();
+        String firstName = teacher.getFirstName();
+        teacherRepository.save(teacher.setFirstName("Renamed"));
+
+        try {
+            String newETag = mockMvc.perform(MockMvcRequestBuilders.get("/api/teacher")
+                            .header("Authorization", "Bearer " + authToken)
+                            .header("If-None-Match", eTag))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andExpect(MockMvcResultMatchers.jsonPath("$[?(@.id == 2)].firstName").value("Renamed"))
+                    .andReturn().getResponse().getHeader("ETag");
+            assertNotEquals(eTag, newETag);
+        } finally {
+            teacherRepository.save(teacherRepository.findById(2L).orElseThrow().setFirstName(firstName));
+        }
+    }
+
     @Test
     public void testGetAllTeachers() throws Exception {
         MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/teacher")
@@ -70,6 +128,35 @@ public class TeacherIntegrationTests extends BaseIntegrationTests {
         assertEquals(teacherToQuery.getFirstName(), new String(JsonPath.read(responseBody, "$.firstName").toString().getBytes("ISO-8859-1"), "UTF-8"));
     }
 
+    @Test
+    public void testStatelessPrincipalSavesOneQueryPerRequest() throws Exception {
+        Object statelessPrincipal = ReflectionTestUtils.getField(authTokenFilter, "statelessPrincipal");
+
+        try {
+            ReflectionTestUtils.setField(authTokenFilter, "statelessPrincipal", false);
+            // Start from a cold user details cache so the database principal lookup is measured
+            userRepository.findByEmail(environment.getProperty("TEST_ADMIN_USER_EMAIL")).ifPresent(userDetailsService::evict);
+            long statefulQueries = countStatementsForGetTeacher();
+
+            ReflectionTestUtils.setField(authTokenFilter, "statelessPrincipal", true);
+            long statelessQueries = countStatementsForGetTeacher();
+
+            assertEquals(statefulQueries - 1, statelessQueries, "The stateless principal skips the user lookup");
+        } finally {
+            ReflectionTestUtils.setField(authTokenFilter, "statelessPrincipal", statelessPrincipal);
+        }
+    }
+
+    private long countStatementsForGetTeacher() throws Exception {
+        Statistics statistics = resetStatistics();
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/teacher/{id}", 1L)
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        return statistics.getPrepareStatementCount();
+    }
+
     /*@Test
     public void testTeacherToString() {
         long uniqueId = System.currentTimeMillis();
@@ -5,8 +5,8 @@ import com.openclassrooms.starterjwt.mapper.TeacherMapper;
 import com.openclassrooms.starterjwt.models.Teacher;
 import com.openclassrooms.starterjwt.repository.TeacherRepository;
 import com.openclassrooms.starterjwt.services.TeacherService;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -24,6 +24,8 @@ import java.util.Set;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest
@@ -35,12 +37,16 @@ public class TeacherUnitTests {
     @Autowired
     private TeacherMapper teacherMapper;
 
-    @InjectMocks
     private TeacherService teacherService;
 
     private final ValidatorFactory validatorFactory = Validation.buildDefaultValidatorFactory();
     private final Validator validator = validatorFactory.getValidator();
 
+    @BeforeEach
+    public void setUp() {
+        teacherService = new TeacherService(teacherRepository, 1000, 600);
+    }
+
     @Test
     void testTeacherBuilder() {
         Teacher teacher = Teacher.builder()
@@ -120,6 +126,23 @@ public class TeacherUnitTests {
         assertThat(actualTeacher).isEqualTo(expectedTeacher);
     }
 
+    @Test
+    void testFindByIdIsCachedUntilEvicted() {
+        Teacher teacher = new Teacher(1L, "LastName", "FirstName", null, null);
+        when(teacherRepository.findById(1L)).thenReturn(Optional.of(teacher));
+
+        Teacher first = teacherService.findById(1L);
+        first.setLastName("Changed by the caller");
+        Teacher second = teacherService.findById(1L);
+
+        verify(teacherRepository, times(1)).findById(1L);
+        assertEquals("LastName", second.getLastName());
+
+        teacherService.evict(teacher);
+        teacherService.findById(1L);
+        verify(teacherRepository, times(2)).findById(1L);
+    }
+
     @Test
     void testFindByIdNotFound() {
         Long nonExistingTeacherId = 999L;
@@ -3,6 +3,7 @@ package com.openclassrooms.starterjwt;
 import com.jayway.jsonpath.JsonPath;
 import com.openclassrooms.starterjwt.models.User;
 import com.openclassrooms.starterjwt.repository.UserRepository;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -56,4 +57,16 @@ public class UserIntegrationTests extends BaseIntegrationTests {
         assertEquals(userToQuery.getFirstName(), JsonPath.read(responseBody, "$.firstName"));
         assertEquals(userToQuery.isAdmin(), JsonPath.read(responseBody, "$.admin"));
     }
+
+    @Test
+    public void testDeleteOtherUserIsRejectedWithoutQueries() throws Exception {
+        Statistics statistics = resetStatistics();
+
+        mockMvc.perform(MockMvcRequestBuilders.delete("/api/user/{id}", 3L)
+                        .header("Authorization", "Bearer " + authToken))
+                .andExpect(MockMvcResultMatchers.status().isUnauthorized());
+
+        assertEquals(0, statistics.getPrepareStatementCount());
+        assertNotNull(userRepository.findById(3L).orElse(null));
+    }
 }
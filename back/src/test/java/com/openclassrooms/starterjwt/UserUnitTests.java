@@ -4,6 +4,8 @@ import com.openclassrooms.starterjwt.dto.UserDto;
 import com.openclassrooms.starterjwt.mapper.UserMapper;
 import com.openclassrooms.starterjwt.models.User;
 import com.openclassrooms.starterjwt.repository.UserRepository;
+import com.openclassrooms.starterjwt.security.BoundedPasswordEncoder;
+import com.openclassrooms.starterjwt.security.services.RegisteredEmailFilter;
 import com.openclassrooms.starterjwt.security.services.UserDetailsImpl;
 import com.openclassrooms.starterjwt.services.UserService;
 import org.junit.jupiter.api.Test;
@@ -18,12 +20,15 @@ import javax.validation.Validator;
 import javax.validation.ValidatorFactory;
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -33,6 +38,12 @@ public class UserUnitTests {
     @Mock
     private UserRepository userRepository;
 
+    @Mock
+    private BoundedPasswordEncoder passwordEncoder;
+
+    @Mock
+    private RegisteredEmailFilter registeredEmailFilter;
+
     @InjectMocks
     private UserService userService;
 
@@ -270,6 +281,25 @@ public class UserUnitTests {
         assertEquals(user1.getEmail(), userDtoList.get(0).getEmail());
     }
 
+    @Test
+    void testRegisterAllReportsEmailsRegisteredConcurrently() {
+        User first = new User("first@example.com", "Doe", "John", "raw-password", false);
+        User second = new User("second@example.com", "Doe", "Jane", "raw-password", false);
+        when(userRepository.findExistingEmails(any())).thenReturn(Collections.emptyList());
+        when(passwordEncoder.encodeAll(any())).thenReturn(Arrays.asList("hash-1", "hash-2"));
+        // The second email was registered by another request between the lookup and the insert
+        when(userRepository.findPasswordsByEmail(any())).thenReturn(Arrays.asList(
+                new Object[]{"first@example.com", "hash-1"},
+                new Object[]{"second@example.com", "someone-else"}));
+
+        List<String> alreadyTaken = userService.registerAll(Arrays.asList(first, second));
+
+        assertEquals(Collections.singletonList("second@example.com"), alreadyTaken);
+        verify(userRepository).insertAllSkippingDuplicates(Arrays.asList(first, second));
+        verify(registeredEmailFilter).add("first@example.com");
+        verify(registeredEmailFilter, never()).add("second@example.com");
+    }
+
     @Test
     public void testUserDetailsImplEquals() {
         UserDetailsImpl user1 = UserDetailsImpl.builder().id(1L).username("test@example.com").build();
@@ -4,6 +4,7 @@ export interface Session {
   description: string;
   date: Date;
   teacher_id: number;
+  capacity?: number | null;
   users: number[];
   createdAt?: Date;
   updatedAt?: Date;
@@ -1,19 +1,60 @@
-import { HttpHandler, HttpInterceptor, HttpRequest } from "@angular/common/http";
+import { HttpErrorResponse, HttpEvent, HttpHandler, HttpInterceptor, HttpRequest, HttpResponse } from "@angular/common/http";
 import { Injectable } from "@angular/core";
+import { Observable, catchError, filter, finalize, map, shareReplay, switchMap, take, throwError } from 'rxjs';
+import { SessionInformation } from '../interfaces/sessionInformation.interface';
 import { SessionService } from '../services/session.service';
 
 @Injectable({ providedIn: 'root' })
 export class JwtInterceptor implements HttpInterceptor {
+  // Refresh tokens are single use, so concurrent 401s must share one refresh call
+  private refresh$: Observable<SessionInformation> | null = null;
+
   constructor(private sessionService: SessionService) {}
 
-  public intercept(request: HttpRequest<any>, next: HttpHandler) {
-    if (this.sessionService.isLogged) {
-      request = request.clone({
-        setHeaders: {
-          Authorization: `Bearer ${this.sessionService.sessionInformation!.token}`,
-        },
-      });
+  public intercept(request: HttpRequest<any>, next: HttpHandler): Observable<HttpEvent<any>> {
+    if (!this.sessionService.isLogged) {
+      return next.handle(request);
+    }
+
+    return next.handle(this.withToken(request)).pipe(
+      catchError((error) => {
+        const refreshToken = this.sessionService.sessionInformation?.refreshToken;
+        if (!(error instanceof HttpErrorResponse) || error.status !== 401 || !refreshToken || request.url.includes('api/auth/')) {
+          return throwError(() => error);
+        }
+
+        return this.refresh(refreshToken, next).pipe(
+          catchError(() => {
+            this.sessionService.logOut();
+            return throwError(() => error);
+          }),
+          switchMap(() => next.handle(this.withToken(request)))
+        );
+      })
+    );
+  }
+
+  private refresh(refreshToken: string, next: HttpHandler): Observable<SessionInformation> {
+    if (!this.refresh$) {
+      this.refresh$ = next.handle(new HttpRequest<any>('POST', 'api/auth/refresh', { refreshToken })).pipe(
+        filter((event): event is HttpResponse<SessionInformation> => event instanceof HttpResponse),
+        take(1),
+        map((response) => {
+          this.sessionService.logIn(response.body!);
+          return response.body!;
+        }),
+        finalize(() => this.refresh$ = null),
+        shareReplay(1)
+      );
     }
-    return next.handle(request);
+    return this.refresh$;
+  }
+
+  private withToken(request: HttpRequest<any>): HttpRequest<any> {
+    return request.clone({
+      setHeaders: {
+        Authorization: `Bearer ${this.sessionService.sessionInformation!.token}`,
+      },
+    });
   }
 }